@@ -0,0 +1,80 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.artlebedev.csscompressor.benchmark.Corpus;
+import ru.artlebedev.csscompressor.benchmark.Throughput;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Minification of a whole stylesheet: by the YUI CssCompressor and by
+ * each engine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Engine {
+
+    @Param({"regex", "single-pass"})
+    public String engine;
+
+    CssEngine cssEngine;
+
+    @Setup
+    public void create() {
+      cssEngine = engine.equals("regex") ?
+          new RegexCssEngine() : new SinglePassCssEngine();
+    }
+
+  }
+
+
+  @Benchmark
+  public String cssCompressor(Corpus corpus, Throughput throughput)
+      throws IOException {
+
+    StringWriter out = new StringWriter();
+    new CssCompressor(corpus.css).compress(out, -1);
+
+    throughput.megabytes += corpus.megabytes;
+    return out.toString();
+  }
+
+  @Benchmark
+  public String engine(Corpus corpus, Engine engine, Throughput throughput)
+      throws IOException {
+
+    StringWriter out = new StringWriter();
+    engine.cssEngine.compress(corpus.css, out, -1);
+
+    throughput.megabytes += corpus.megabytes;
+    return out.toString();
+  }
+
+}
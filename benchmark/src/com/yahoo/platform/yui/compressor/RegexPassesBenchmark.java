@@ -0,0 +1,114 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.artlebedev.csscompressor.benchmark.Corpus;
+import ru.artlebedev.csscompressor.benchmark.Throughput;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Single passes of {@link RegexCssEngine}. Every pass runs over a corpus
+ * stylesheet as is rather than over the output of the passes before it,
+ * so a score is comparable with the same pass before a change, not with
+ * other passes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegexPassesBenchmark {
+
+  private final RegexCssEngine engine = new RegexCssEngine();
+
+  // corpus css with data urls and comments turned into placeholders
+  private String tokenized;
+  private List<String> preservedTokens;
+
+
+  @Setup
+  public void tokenize(Corpus corpus) {
+    preservedTokens = new ArrayList<String>();
+    List<String> comments = new ArrayList<String>();
+
+    String css = engine.extractDataUrls(corpus.css, preservedTokens);
+    css = RegexCssEngine.collectComments(
+        css, css.length(), comments, new StringBuffer());
+    tokenized = RegexCssEngine.wrestleComments(
+        css, comments, preservedTokens, new StringBuffer());
+  }
+
+
+  @Benchmark
+  public String extractDataUrls(Corpus corpus, Throughput throughput) {
+    String css =
+        engine.extractDataUrls(corpus.css, new ArrayList<String>());
+
+    throughput.megabytes += corpus.megabytes;
+    return css;
+  }
+
+  /**
+   * Collecting comment bodies, then preserving or removing them.
+   */
+  @Benchmark
+  public String comments(Corpus corpus, Throughput throughput) {
+    List<String> comments = new ArrayList<String>();
+    String css = RegexCssEngine.collectComments(
+        corpus.css, corpus.css.length(), comments, new StringBuffer());
+    css = RegexCssEngine.wrestleComments(
+        css, comments, new ArrayList<String>(), new StringBuffer());
+
+    throughput.megabytes += corpus.megabytes;
+    return css;
+  }
+
+  /**
+   * rgb() to hex, then #aabbcc to #abc.
+   */
+  @Benchmark
+  public String colors(Corpus corpus, Throughput throughput) {
+    String css =
+        RegexCssEngine.shortenRgbColors(corpus.css, new StringBuffer());
+    css = RegexCssEngine.shortenHexColors(css, new StringBuffer());
+
+    throughput.megabytes += corpus.megabytes;
+    return css;
+  }
+
+  /**
+   * Putting preserved data urls and comments back in place of their
+   * placeholders.
+   */
+  @Benchmark
+  public String restoreTokens(Corpus corpus, Throughput throughput) {
+    String css = RegexCssEngine.restore(
+        tokenized, RegexCssEngine.TOKEN_PLACEHOLDER, preservedTokens,
+        new StringBuffer());
+
+    throughput.megabytes += corpus.megabytes;
+    return css;
+  }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.artlebedev.csscompressor.benchmark.Corpus;
+import ru.artlebedev.csscompressor.benchmark.Throughput;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Stages of a module build around minification: import scanning and
+ * inlining, --replace rules, and the whole build of a module in memory.
+ * Inlining benchmarks count megabytes of the inlined module.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+  // a revision appended to images and a static host, as used in builds
+  private static final String[][] REPLACES = {
+      {"\\.(png|gif|jpg)\\)", ".$1?v=42)"},
+      {"/i/", "//static.example.com/i/"},
+      {"#FFFFFF", "#fff"}
+  };
+
+
+  private File catalog;
+
+  private Config config;
+
+  private Config.Module module;
+
+  // keeps files read between operations, as --watch and --serve do
+  private CssCompressor compressor;
+
+  private Replacer replacer;
+
+  private double moduleMegabytes;
+
+  private final PrintWriter log = new PrintWriter(new StringWriter());
+
+
+  @Setup
+  public void setUp() throws IOException {
+    catalog = Corpus.extractImports();
+
+    Config.Builder builder = new Config.Builder()
+        .setRoot(catalog.getPath())
+        .addModule("main", Corpus.IMPORTS_MODULE);
+    for (String[] replace : REPLACES) {
+      builder.addReplace(replace[0], replace[1]);
+    }
+    config = builder.build();
+    module = config.getModules().get(0);
+
+    compressor = new CssCompressor(config, new BuildContext());
+    replacer = new Replacer(config.getReplaces());
+
+    long length = 0;
+    for (String fragment : inline(compressor)) {
+      length += fragment.length();
+    }
+    // corpus is ASCII, chars are bytes
+    moduleMegabytes = Corpus.toMegabytes(length);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Corpus.delete(catalog);
+  }
+
+
+  @Benchmark
+  public Object scanImports(Corpus corpus, Throughput throughput) {
+    Object imports = CssImportScanner.scan(corpus.css);
+
+    throughput.megabytes += corpus.megabytes;
+    return imports;
+  }
+
+  /**
+   * Files are parsed once, later operations check they have not changed.
+   */
+  @Benchmark
+  public Object inlineImports(Throughput throughput) throws IOException {
+    Object fragments = inline(compressor);
+
+    throughput.megabytes += moduleMegabytes;
+    return fragments;
+  }
+
+  /**
+   * Files are read and parsed every time, as in a build from the command
+   * line.
+   */
+  @Benchmark
+  public Object inlineImportsUncached(Throughput throughput)
+      throws IOException {
+
+    Object fragments = inline(new CssCompressor(config, new BuildContext()));
+
+    throughput.megabytes += moduleMegabytes;
+    return fragments;
+  }
+
+  @Benchmark
+  public String applyReplaces(Corpus corpus, Throughput throughput) {
+    String css = replacer.apply(corpus.css);
+
+    throughput.megabytes += corpus.megabytes;
+    return css;
+  }
+
+  @Benchmark
+  public String buildModule(Throughput throughput) throws IOException {
+    String css =
+        compressor.buildInMemory(module, new ArrayList<String>(), log);
+
+    throughput.megabytes += moduleMegabytes;
+    return css;
+  }
+
+
+  private List<String> inline(CssCompressor compressor) throws IOException {
+    return compressor.concatCssFiles(
+        module.inputs, null, new ArrayList<String>(), log);
+  }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Stylesheets benchmarks run on, packed into the benchmarks jar from
+ * benchmark/corpus:
+ *   small     a page stylesheet of a few kilobytes;
+ *   large     a site stylesheet of 200 KB with media queries and hacks;
+ *   comments  mostly comments, preserved ones and comment hacks among them;
+ *   data-uri  rules with base64 and svg data urls;
+ *   strings   content, quotes, font names and filters in strings.
+ * imports/main.css is a module of several files importing each other.
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+  public static final String IMPORTS_MODULE = "main.css";
+
+  private static final String[] IMPORTS_FILES = {
+      "main.css", "base.css", "layout.css", "forms.css", "buttons.css",
+      "widgets/tabs.css", "widgets/popup.css"
+  };
+
+  private static final double MEGABYTE = 1024 * 1024;
+
+
+  @Param({"small", "large", "comments", "data-uri", "strings"})
+  public String corpus;
+
+  public String css;
+
+  // size of css in megabytes, added to Throughput by every operation
+  public double megabytes;
+
+
+  @Setup
+  public void read() throws IOException {
+    byte[] bytes = readBytes(corpus + ".css");
+    css = new String(bytes, "UTF-8");
+    megabytes = bytes.length / MEGABYTE;
+  }
+
+
+  /**
+   * Copies the imports module to a new temporary catalog, as the compressor
+   * reads files from disk.
+   *
+   * @return  The catalog, IMPORTS_MODULE is the module input there.
+   */
+  public static File extractImports() throws IOException {
+    File catalog = File.createTempFile("css-compressor-benchmark", "");
+    if (!catalog.delete() || !catalog.mkdir()) {
+      throw new IOException("Unable to create catalog " + catalog);
+    }
+
+    for (String name : IMPORTS_FILES) {
+      File file = new File(catalog, name);
+      file.getParentFile().mkdirs();
+
+      OutputStream out = new FileOutputStream(file);
+      try {
+        out.write(readBytes("imports/" + name));
+      } finally {
+        out.close();
+      }
+    }
+
+    return catalog;
+  }
+
+  public static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  public static double toMegabytes(long bytes) {
+    return bytes / MEGABYTE;
+  }
+
+
+  private static byte[] readBytes(String name) throws IOException {
+    InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name);
+    if (in == null) {
+      throw new IOException("No corpus file " + name);
+    }
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, count);
+      }
+      return bytes.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Megabytes of css an operation has processed. JMH reports the counter
+ * as a rate next to the benchmark score, in MB/s with the default
+ * throughput mode and seconds as time unit.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class Throughput {
+
+  public double megabytes;
+
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    megabytes = 0;
+  }
+
+}
@@ -0,0 +1,17 @@
+#!/bin/sh
+
+# a stand-in persistent preprocessor (see "preprocess-worker" option),
+# answers every request with the input file as is
+
+while read length; do
+  path=`dd bs=1 count="$length" 2>/dev/null`
+
+  if [ -f "$path" ]; then
+    echo "ok `wc -c < "$path" | tr -d ' '`"
+    cat "$path"
+  else
+    message="no such file: $path"
+    echo "error `printf '%s' "$message" | wc -c | tr -d ' '`"
+    printf '%s' "$message"
+  fi
+done
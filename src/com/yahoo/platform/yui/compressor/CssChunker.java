@@ -0,0 +1,279 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+/**
+ * Splits CSS into chunks that can be minified one by one: concatenated
+ * outputs of {@link RegexCssEngine} for the chunks are the same as its
+ * output for the whole css, with the exception of @charset hoisting
+ * (chunks holding nothing but a @charset rule are marked, see
+ * {@link #isCharset}) and line breaking.
+ *
+ * A chunk ends after a top-level closing brace, whitespace and removed
+ * comments that follow it. The end is not used when the regex engine would
+ * see the chunks together: a Mac/IE5 hack comment waiting for its pair,
+ * a pseudo-class selector match that could start inside the closed block
+ * (also when the next chunk would start with a colon), or the next chunk
+ * starting with a character that joins the previous one.
+ */
+class CssChunker implements CssTokenizer.Output {
+
+  private static final String CHARSET_RULE = "@charset";
+
+  // states of a @charset rule match, before them: chars of CHARSET_RULE
+  private static final int CHARSET_SPACE = 8;
+  private static final int CHARSET_QUOTE = 9;
+  private static final int CHARSET_NAME = 10;
+  private static final int CHARSET_CLOSING_QUOTE = 11;
+  private static final int CHARSET_SEMICOLON = 12;
+
+  private final CharSequence css;
+  private final CssTokenizer tokenizer;
+
+  private int[] starts = new int[16];
+  private boolean[] charsets = new boolean[16];
+  private int count;
+
+  private int depth;
+  // whether } and then : were seen after the last {
+  private boolean closed;
+  private boolean colonAfterClose;
+
+  // skipping whitespace after a chunk end
+  private boolean ended = true;
+  private boolean endedAwaitingHackPair;
+
+  // a data url placeholder inside a string or a comment: the regex engine
+  // does not restore it, so output depends on the number of data urls before
+  private boolean nestedPlaceholder;
+
+  private int charsetState = -1;
+  private int charsetMatched;
+  private boolean looseCharset;
+  // css starts with a character that would join a hoisted @charset rule
+  private boolean joinsCharset;
+  // the regex engine only hoists @charset rules from the first line
+  private boolean lineTerminator;
+
+
+  CssChunker(CharSequence css) {
+    this.css = css;
+    this.tokenizer = new CssTokenizer(css);
+  }
+
+
+  /**
+   * @return  false if the regex engine output for css depends on its
+   *          parts other than the chunk: css relies on a quirk the tokenizer
+   *          does not reproduce (or is cut in the middle of a token), or
+   *          has data urls inside strings or comments. Chunks are still
+   *          valid up to that point, the last one takes the rest of css.
+   */
+  boolean split() {
+    boolean complete = true;
+    try {
+      tokenizer.tokenize(this);
+    } catch (CssTokenizer.UnsupportedInputException e) {
+      complete = false;
+    }
+    if (count == 0) {
+      addChunk(0);
+    }
+    if (charsetState >= CHARSET_SPACE) {
+      looseCharset = true;
+    }
+    if (joinsCharset || lineTerminator) {
+      for (int i = 0; i < count; i++) {
+        looseCharset |= charsets[i];
+      }
+    }
+    return complete && !nestedPlaceholder;
+  }
+
+  int getChunkCount() {
+    return count;
+  }
+
+  int getChunkStart(int index) {
+    return starts[index];
+  }
+
+  int getChunkEnd(int index) {
+    return index + 1 < count ? starts[index + 1] : css.length();
+  }
+
+  /**
+   * @return  true if the chunk is a @charset rule written the way
+   *          the regex engine hoists it, alone in its chunk.
+   */
+  boolean isCharset(int index) {
+    return charsets[index];
+  }
+
+  /**
+   * @return  true if css has @charset rules that the regex engine would
+   *          not hoist over chunks the same way (in blocks, unquoted,
+   *          after a line terminator that \s does not match, etc.).
+   */
+  boolean hasLooseCharset() {
+    return looseCharset;
+  }
+
+
+  public void push(int symbol) {
+    if (symbol >= CssTokenizer.ATOM && tokenizer.getText(symbol).indexOf(
+        CssTokenizer.PLACEHOLDER_PREFIX) >= 0) {
+      nestedPlaceholder = true;
+    }
+    if (CssTokenizer.isLineTerminator(symbol) &&
+        !CssTokenizer.isSpace(symbol)) {
+      lineTerminator = true;
+    }
+    if (ended) {
+      if (CssTokenizer.isSpace(symbol)) {
+        return;
+      }
+      ended = false;
+      if (count == 0) {
+        // leading whitespace and comments go to the first chunk
+        startChunk(0);
+        joinsCharset = symbol == '}' || symbol == ';';
+      } else if (symbol > ' ' && symbol != '}' && symbol != ';' &&
+          symbol != ':' &&
+          !endedAwaitingHackPair && !tokenizer.isAwaitingHackPair()) {
+        startChunk(tokenizer.getLexemeStart());
+      } else if (charsets[count - 1]) {
+        charsets[count - 1] = false;
+        looseCharset = true;
+      }
+    }
+
+    if (charsetState >= 0) {
+      charsetState = matchCharset(charsetState, symbol);
+      if (ended) {
+        return;
+      }
+    }
+    if (symbol == CHARSET_RULE.charAt(charsetMatched)) {
+      charsetMatched++;
+      if (charsetMatched == CHARSET_RULE.length()) {
+        charsetMatched = 0;
+        if (charsetState != CHARSET_SPACE) {
+          looseCharset = true;
+        }
+      }
+    } else {
+      charsetMatched = symbol == '@' ? 1 : 0;
+    }
+
+    switch (symbol) {
+      case '{':
+        depth++;
+        closed = false;
+        colonAfterClose = false;
+        break;
+
+      case '}':
+        if (depth > 0) {
+          depth--;
+          if (depth == 0 && !colonAfterClose) {
+            end();
+          }
+        }
+        closed = true;
+        break;
+
+      case ':':
+        if (closed) {
+          colonAfterClose = true;
+        }
+        break;
+    }
+  }
+
+
+  private int matchCharset(int state, int symbol) {
+    if (state < CHARSET_SPACE) {
+      if (symbol == CHARSET_RULE.charAt(state)) {
+        return state + 1;
+      }
+    } else if (state == CHARSET_SPACE) {
+      if (CssTokenizer.isSpace(symbol)) {
+        return CHARSET_QUOTE;
+      }
+    } else if (state == CHARSET_QUOTE) {
+      if (CssTokenizer.isSpace(symbol)) {
+        return CHARSET_QUOTE;
+      }
+      if (symbol == '"') {
+        return CHARSET_NAME;
+      }
+    } else if (state == CHARSET_NAME) {
+      if (tokenizer.isString(symbol) &&
+          isCharsetName(tokenizer.getText(symbol))) {
+        return CHARSET_CLOSING_QUOTE;
+      }
+    } else if (state == CHARSET_CLOSING_QUOTE) {
+      if (symbol == '"') {
+        return CHARSET_SEMICOLON;
+      }
+    } else {
+      if (CssTokenizer.isSpace(symbol)) {
+        return CHARSET_SEMICOLON;
+      }
+      if (symbol == ';') {
+        charsets[count - 1] = true;
+        end();
+        return -1;
+      }
+    }
+
+    if (state >= CHARSET_SPACE) {
+      looseCharset = true;
+    }
+    return -1;
+  }
+
+  private static boolean isCharsetName(String name) {
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' ||
+          c >= '0' && c <= '9' || c == '-' || c == '_' || c == '.' ||
+          c == ':')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void end() {
+    ended = true;
+    endedAwaitingHackPair = tokenizer.isAwaitingHackPair();
+  }
+
+  private void startChunk(int start) {
+    addChunk(start);
+    charsetState = 0;
+    charsetMatched = 0;
+  }
+
+  private void addChunk(int start) {
+    if (count == starts.length) {
+      int[] newStarts = new int[count * 2];
+      boolean[] newCharsets = new boolean[count * 2];
+      System.arraycopy(starts, 0, newStarts, 0, count);
+      System.arraycopy(charsets, 0, newCharsets, 0, count);
+      starts = newStarts;
+      charsets = newCharsets;
+    }
+    starts[count] = start;
+    charsets[count] = false;
+    count++;
+  }
+
+}
@@ -0,0 +1,22 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Long-lived CSS minifier. Implementations keep no per-call state in their
+ * fields, so a single instance can be shared by all modules and threads.
+ */
+public interface CssEngine {
+
+  void compress(CharSequence css, Writer out, int linebreakpos)
+      throws IOException;
+
+}
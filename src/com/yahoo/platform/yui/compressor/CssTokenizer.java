@@ -0,0 +1,499 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+/**
+ * Lexer for {@link SinglePassCssEngine}.
+ *
+ * Splits CSS source into plain characters and preserved tokens (data urls,
+ * strings and preserved comments) exactly the way
+ * {@link RegexCssEngine} does it with its placeholder passes:
+ * data urls are recognized first (even inside comments and strings),
+ * then comments (even inside strings), then strings.
+ *
+ * Output is a stream of symbols pushed to {@link Output}: values below
+ * {@link #ATOM} are characters, values from {@link #ATOM} upwards are
+ * preserved tokens whose text can be obtained with {@link #getText}.
+ */
+class CssTokenizer {
+
+  static final int ATOM = 0x10000;
+
+  static final int EOF = -1;
+
+  static final String PLACEHOLDER_PREFIX = "___YUICSSMIN_PRESERVED_TOKEN_";
+
+  static final String PLACEHOLDER_SUFFIX = "___";
+
+  private static final int DATA_URL = 0;
+  private static final int STRING = 1;
+  private static final int COMMENT = 2;
+
+
+  interface Output {
+    void push(int symbol);
+  }
+
+
+  /**
+   * Thrown when input relies on a quirk of the regex engine that this lexer
+   * does not reproduce (unterminated comments and strings, broken data urls
+   * and so on). Callers are expected to fall back to {@link RegexCssEngine}.
+   */
+  static final class UnsupportedInputException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedInputException(String message) {
+      super(message);
+    }
+  }
+
+
+  private final CharSequence css;
+  private final int length;
+
+  private String[] texts = new String[16];
+  private int[] kinds = new int[16];
+  private int[] ordinals = new int[16];
+  private int tokenCount;
+  private final int[] kindCounts = new int[3];
+
+  // raw input position and data url lookup state
+  private int pos;
+  private int dataStart = -1;
+  private int dataEnd;
+  private char dataQuote;
+
+  // symbols already read from the input but not consumed by the lexer,
+  // with input positions they start at
+  private final int[] ahead = new int[8];
+  private final int[] aheadPositions = new int[8];
+  private int aheadStart;
+  private int aheadCount;
+
+  // input position of the comment, string or character being lexed
+  private int lexemeStart;
+
+  private Output out;
+  private int last = EOF;
+
+  // token id reserved by a Mac/IE5 hack comment for the comment following it
+  private int forcedComment = -1;
+
+  private final StringBuilder body = new StringBuilder();
+
+
+  CssTokenizer(CharSequence css) {
+    this.css = css;
+    this.length = css.length();
+  }
+
+
+  void tokenize(Output out) {
+    this.out = out;
+    if (indexOf(css, "___YUICSSMIN_", 0) >= 0) {
+      throw new UnsupportedInputException("input contains placeholders");
+    }
+    findDataUrl(0);
+
+    int s;
+    while ((s = peek(0)) != EOF) {
+      lexemeStart = aheadPositions[aheadStart];
+      if (s == '/' && peek(1) == '*') {
+        comment(null);
+      } else if (s == '"' || s == '\'') {
+        string();
+      } else {
+        emit(read());
+      }
+    }
+  }
+
+  String getText(int symbol) {
+    return texts[symbol - ATOM];
+  }
+
+  boolean isString(int symbol) {
+    return symbol >= ATOM && kinds[symbol - ATOM] == STRING;
+  }
+
+  /**
+   * @return  Input position where the lexeme (a character, a string or
+   *          a comment) of the symbol being pushed starts.
+   */
+  int getLexemeStart() {
+    return lexemeStart;
+  }
+
+  /**
+   * @return  true after a Mac/IE5 hack comment, until the comment paired
+   *          with it is read.
+   */
+  boolean isAwaitingHackPair() {
+    return forcedComment >= 0;
+  }
+
+  /**
+   * @return  Length of the placeholder {@link RegexCssEngine} would use
+   *          for the token in its working string.
+   */
+  int getPlaceholderLength(int symbol) {
+    int id = symbol - ATOM;
+    int index = ordinals[id];
+    if (kinds[id] != DATA_URL) {
+      index += kindCounts[DATA_URL];
+    }
+    if (kinds[id] == COMMENT) {
+      index += kindCounts[STRING];
+    }
+    return PLACEHOLDER_PREFIX.length() + PLACEHOLDER_SUFFIX.length() +
+        Integer.toString(index).length();
+  }
+
+
+  private void comment(StringBuilder string) {
+    read();
+    read();
+    body.setLength(0);
+    for (;;) {
+      int s = read();
+      if (s == EOF) {
+        throw new UnsupportedInputException("unterminated comment");
+      }
+      if (s == '*' && peek(0) == '/') {
+        read();
+        break;
+      }
+      appendSymbol(body, s);
+    }
+    if (peek(0) == '*') {
+      // the closing slash would start the next comment as well
+      throw new UnsupportedInputException("comment followed by *");
+    }
+
+    String token = body.toString();
+
+    if (string != null) {
+      // the comment goes back into the string as is, but it is
+      // still counted the same way the regex engine counts it
+      string.append("/*").append(token).append("*/");
+      if (forcedComment >= 0) {
+        forcedComment = -1;
+      } else if (token.startsWith("!")) {
+        addToken(COMMENT, token);
+      } else if (token.endsWith("\\")) {
+        addToken(COMMENT, "\\");
+        forcedComment = addToken(COMMENT, "");
+      }
+      return;
+    }
+
+    int id;
+    if (forcedComment >= 0) {
+      id = forcedComment;
+      forcedComment = -1;
+    } else if (token.startsWith("!")) {
+      id = addToken(COMMENT, token);
+    } else if (token.endsWith("\\")) {
+      // \ in the last position looks like hack for Mac/IE5
+      // shorten that to /*\*/ and the next one to /**/
+      id = addToken(COMMENT, "\\");
+      forcedComment = addToken(COMMENT, "");
+    } else if (token.length() == 0 && last == '>') {
+      // keep empty comments after child selectors (IE7 hack)
+      id = addToken(COMMENT, "");
+    } else {
+      return;
+    }
+
+    emit('/');
+    emit('*');
+    emit(ATOM + id);
+    emit('*');
+    emit('/');
+  }
+
+
+  private void string() {
+    int quote = read();
+    StringBuilder token = new StringBuilder();
+
+    for (;;) {
+      int s = peek(0);
+      if (s == EOF) {
+        throw new UnsupportedInputException("unterminated string");
+      }
+      if (s == '/' && peek(1) == '*') {
+        comment(token);
+        continue;
+      }
+      read();
+      if (s == quote) {
+        break;
+      }
+      appendSymbol(token, s);
+      if (s == '\\') {
+        int escaped = peek(0);
+        if (escaped == EOF) {
+          throw new UnsupportedInputException("unterminated string");
+        }
+        if (escaped != '/' || peek(1) != '*') {
+          appendSymbol(token, read());
+        }
+      }
+    }
+
+    emit(quote);
+    emit(ATOM + addToken(STRING, shortenAlphaOpacity(token)));
+    emit(quote);
+  }
+
+
+  private void emit(int symbol) {
+    last = symbol;
+    out.push(symbol);
+  }
+
+  private void appendSymbol(StringBuilder sb, int symbol) {
+    if (symbol < ATOM) {
+      sb.append((char) symbol);
+    } else {
+      sb.append(PLACEHOLDER_PREFIX)
+          .append(ordinals[symbol - ATOM])
+          .append(PLACEHOLDER_SUFFIX);
+    }
+  }
+
+  private int addToken(int kind, String text) {
+    if (tokenCount == texts.length) {
+      int capacity = tokenCount * 2;
+      String[] newTexts = new String[capacity];
+      int[] newKinds = new int[capacity];
+      int[] newOrdinals = new int[capacity];
+      System.arraycopy(texts, 0, newTexts, 0, tokenCount);
+      System.arraycopy(kinds, 0, newKinds, 0, tokenCount);
+      System.arraycopy(ordinals, 0, newOrdinals, 0, tokenCount);
+      texts = newTexts;
+      kinds = newKinds;
+      ordinals = newOrdinals;
+    }
+    texts[tokenCount] = text;
+    kinds[tokenCount] = kind;
+    ordinals[tokenCount] = kindCounts[kind]++;
+    return tokenCount++;
+  }
+
+
+  private int peek(int offset) {
+    while (aheadCount <= offset) {
+      int position = pos;
+      int s = readInput();
+      ahead[(aheadStart + aheadCount) % ahead.length] = s;
+      aheadPositions[(aheadStart + aheadCount) % ahead.length] = position;
+      aheadCount++;
+      if (s == EOF) {
+        break;
+      }
+    }
+    return offset < aheadCount ?
+        ahead[(aheadStart + offset) % ahead.length] : EOF;
+  }
+
+  private int read() {
+    if (aheadCount == 0) {
+      return readInput();
+    }
+    int s = ahead[aheadStart];
+    aheadStart = (aheadStart + 1) % ahead.length;
+    aheadCount--;
+    return s;
+  }
+
+
+  /**
+   * Reads the next character of the input, replacing data urls with
+   * "url(", a token and ")" - the same text extractDataUrls() leaves
+   * in the working string.
+   */
+  private int readInput() {
+    if (pos >= length) {
+      return EOF;
+    }
+    // url( is returned as is, ahead of the data itself
+    if (dataStart < 0 || pos != dataStart + 4) {
+      return css.charAt(pos++);
+    }
+
+    String terminator = dataQuote == 0 ? ")" : String.valueOf(dataQuote);
+    int endIndex = dataEnd - 1;
+    boolean foundTerminator = false;
+    while (!foundTerminator && endIndex + 1 <= length - 1) {
+      endIndex = indexOf(css, terminator, endIndex + 1);
+      if (endIndex < 0) {
+        break;
+      }
+      if (css.charAt(endIndex - 1) != '\\') {
+        foundTerminator = true;
+        if (dataQuote != 0) {
+          endIndex = indexOf(css, ")", endIndex);
+        }
+      }
+    }
+    if (!foundTerminator || endIndex < 0) {
+      throw new UnsupportedInputException("unterminated data url");
+    }
+
+    StringBuilder token = new StringBuilder(endIndex - pos);
+    for (int i = pos; i < endIndex; i++) {
+      char c = css.charAt(i);
+      if (!isSpace(c)) {
+        token.append(c);
+      }
+    }
+    int id = addToken(DATA_URL, token.toString());
+
+    // the regex engine looks for the next data url right after "data:"
+    int matchEnd = dataEnd;
+    pos = endIndex;
+    findDataUrl(matchEnd);
+    if (dataStart >= 0 && dataStart < endIndex + 1) {
+      throw new UnsupportedInputException("nested data url");
+    }
+    return ATOM + id;
+  }
+
+  /**
+   * Looks for url\(\s*(["']?)data\: starting from the given position.
+   */
+  private void findDataUrl(int from) {
+    dataStart = -1;
+    for (int i = from; (i = indexOf(css, "url(", i)) >= 0; i++) {
+      int j = i + 4;
+      while (j < length && isSpace(css.charAt(j))) {
+        j++;
+      }
+      char quote = 0;
+      if (j < length && (css.charAt(j) == '"' || css.charAt(j) == '\'')) {
+        quote = css.charAt(j);
+        j++;
+      }
+      if (regionMatches(css, j, "data:")) {
+        dataStart = i;
+        dataEnd = j + 5;
+        dataQuote = quote;
+        return;
+      }
+    }
+  }
+
+
+  /**
+   * Replaces progid:DXImageTransform.Microsoft.Alpha(Opacity= in a string
+   * token, like the regex engine does for strings.
+   */
+  private static String shortenAlphaOpacity(StringBuilder token) {
+    StringBuilder result = null;
+    int appendIndex = 0;
+    int i = 0;
+    while (i < token.length()) {
+      if (matchesProgid(token, i)) {
+        if (result == null) {
+          result = new StringBuilder(token.length());
+        }
+        result.append(token, appendIndex, i).append(ALPHA_OPACITY);
+        i += PROGID.length();
+        appendIndex = i;
+      } else {
+        i++;
+      }
+    }
+    if (result == null) {
+      return token.toString();
+    }
+    return result.append(token, appendIndex, token.length()).toString();
+  }
+
+
+  static final String PROGID =
+      "progid:DXImageTransform.Microsoft.Alpha(Opacity=";
+
+  static final String ALPHA_OPACITY = "alpha(opacity=";
+
+  /**
+   * Matches PROGID at the given position: dots match any character but
+   * a line terminator, letters are compared ASCII case insensitive.
+   */
+  static boolean matchesProgid(CharSequence s, int start) {
+    if (start + PROGID.length() > s.length()) {
+      return false;
+    }
+    for (int k = 0; k < PROGID.length(); k++) {
+      if (!matchesProgidChar(k, s.charAt(start + k))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean matchesProgidChar(int k, int c) {
+    if (c >= ATOM) {
+      return false;
+    }
+    char p = PROGID.charAt(k);
+    if (p == '.') {
+      return !isLineTerminator(c);
+    }
+    return toLowerAscii(c) == toLowerAscii(p);
+  }
+
+
+  static int toLowerAscii(int c) {
+    return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+  }
+
+  /**
+   * Whitespace the way \s sees it.
+   */
+  static boolean isSpace(int c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' ||
+        c == '\f' || c == '\r';
+  }
+
+  /**
+   * Characters . does not match.
+   */
+  static boolean isLineTerminator(int c) {
+    return c == '\n' || c == '\r' ||
+        c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  private static boolean regionMatches(CharSequence s, int from, String what) {
+    if (from + what.length() > s.length()) {
+      return false;
+    }
+    for (int k = 0; k < what.length(); k++) {
+      if (s.charAt(from + k) != what.charAt(k)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static int indexOf(CharSequence s, String what, int from) {
+    char first = what.charAt(0);
+    int max = s.length() - what.length();
+    for (int i = Math.max(from, 0); i <= max; i++) {
+      if (s.charAt(i) == first && regionMatches(s, i, what)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data url bodies kept outside of the java heap, in direct buffers.
+ * Equal bodies are stored once. Bodies are written straight to the output
+ * when placeholders are restored, so they never get into the strings
+ * the regex passes work on.
+ *
+ * Not thread-safe, every thread uses its own store.
+ */
+class DataUrlStore {
+
+  // chars per segment, bigger bodies get a segment of their own
+  private static final int SEGMENT_SIZE = 256 * 1024;
+
+  private static final int MAX_RETAINED_SEGMENTS = 4;
+
+  private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+  private int segment;
+
+  // per entry: segment, char offset in it, length, hash, next entry
+  // with the same hash bucket
+  private int[] entrySegments = new int[16];
+  private int[] entryOffsets = new int[16];
+  private int[] entryLengths = new int[16];
+  private int[] entryHashes = new int[16];
+  private int[] entryNext = new int[16];
+  private int count;
+
+  private int[] buckets = newBuckets(64);
+
+  private final char[] chunk = new char[8192];
+
+
+  /**
+   * Stores css.substring(start, end) with whitespace removed.
+   *
+   * @return  Id of the entry holding that text.
+   */
+  int add(String css, int start, int end) {
+    int length = 0;
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      char c = css.charAt(i);
+      if (!CssTokenizer.isSpace(c)) {
+        hash = 31 * hash + c;
+        length++;
+      }
+    }
+
+    int bucket = hash & (buckets.length - 1);
+    for (int id = buckets[bucket]; id >= 0; id = entryNext[id]) {
+      if (entryHashes[id] == hash && entryLengths[id] == length &&
+          matches(id, css, start, end)) {
+        return id;
+      }
+    }
+
+    ByteBuffer buffer = reserve(length);
+    int offset = buffer.position() / 2;
+    for (int i = start; i < end; i++) {
+      char c = css.charAt(i);
+      if (!CssTokenizer.isSpace(c)) {
+        buffer.putChar(c);
+      }
+    }
+
+    if (count == entryOffsets.length) {
+      grow();
+    }
+    entrySegments[count] = segment;
+    entryOffsets[count] = offset;
+    entryLengths[count] = length;
+    entryHashes[count] = hash;
+    entryNext[count] = buckets[bucket];
+    buckets[bucket] = count;
+    count++;
+
+    if (count > buckets.length * 3 / 4) {
+      rehash();
+    }
+    return count - 1;
+  }
+
+  void write(int id, Writer out) throws IOException {
+    ByteBuffer buffer = segments.get(entrySegments[id]);
+    int position = entryOffsets[id] * 2;
+    int remaining = entryLengths[id];
+
+    while (remaining > 0) {
+      int n = Math.min(remaining, chunk.length);
+      for (int k = 0; k < n; k++) {
+        chunk[k] = buffer.getChar(position);
+        position += 2;
+      }
+      out.write(chunk, 0, n);
+      remaining -= n;
+    }
+  }
+
+  String get(int id) {
+    ByteBuffer buffer = segments.get(entrySegments[id]);
+    int position = entryOffsets[id] * 2;
+    StringBuilder sb = new StringBuilder(entryLengths[id]);
+    for (int k = 0; k < entryLengths[id]; k++) {
+      sb.append(buffer.getChar(position + k * 2));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Forgets all entries, keeps a few regular segments for the next use.
+   */
+  void clear() {
+    for (int i = segments.size() - 1; i >= 0; i--) {
+      if (segments.get(i).capacity() != SEGMENT_SIZE * 2) {
+        segments.remove(i);
+      } else {
+        segments.get(i).clear();
+      }
+    }
+    while (segments.size() > MAX_RETAINED_SEGMENTS) {
+      segments.remove(segments.size() - 1);
+    }
+    segment = 0;
+    count = 0;
+    buckets = newBuckets(64);
+  }
+
+
+  private boolean matches(int id, String css, int start, int end) {
+    ByteBuffer buffer = segments.get(entrySegments[id]);
+    int position = entryOffsets[id] * 2;
+    for (int i = start; i < end; i++) {
+      char c = css.charAt(i);
+      if (!CssTokenizer.isSpace(c)) {
+        if (buffer.getChar(position) != c) {
+          return false;
+        }
+        position += 2;
+      }
+    }
+    return true;
+  }
+
+  private ByteBuffer reserve(int length) {
+    if (length > SEGMENT_SIZE) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(length * 2);
+      segments.add(buffer);
+      segment = segments.size() - 1;
+      return buffer;
+    }
+
+    for (; segment < segments.size(); segment++) {
+      ByteBuffer buffer = segments.get(segment);
+      if (buffer.remaining() >= length * 2) {
+        return buffer;
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(SEGMENT_SIZE * 2);
+    segments.add(buffer);
+    return buffer;
+  }
+
+  private void grow() {
+    int capacity = count * 2;
+    int[][] arrays = {
+        entrySegments, entryOffsets, entryLengths, entryHashes, entryNext};
+    for (int k = 0; k < arrays.length; k++) {
+      int[] array = new int[capacity];
+      System.arraycopy(arrays[k], 0, array, 0, count);
+      arrays[k] = array;
+    }
+    entrySegments = arrays[0];
+    entryOffsets = arrays[1];
+    entryLengths = arrays[2];
+    entryHashes = arrays[3];
+    entryNext = arrays[4];
+  }
+
+  private void rehash() {
+    buckets = newBuckets(buckets.length * 2);
+    for (int id = 0; id < count; id++) {
+      int bucket = entryHashes[id] & (buckets.length - 1);
+      entryNext[id] = buckets[bucket];
+      buckets[bucket] = id;
+    }
+  }
+
+  private static int[] newBuckets(int size) {
+    int[] buckets = new int[size];
+    Arrays.fill(buckets, -1);
+    return buckets;
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Minifies css made of fragments (e.g. files inlined one into another)
+ * fragment by fragment, so that a fragment shared by many stylesheets is
+ * minified once and then taken from a cache.
+ *
+ * Fragment ends are moved to the nearest following chunk start found by
+ * {@link CssChunker} over the whole css, so every minified part is made of
+ * whole chunks and the joined output is the same as the wrapped engine
+ * gives for the whole css. @charset rules are kept in parts of their own
+ * and hoisted after the join.
+ */
+public class FragmentCssEngine {
+
+  /**
+   * Minified parts by their source text. Implementations used by several
+   * threads at once must be thread-safe.
+   */
+  public interface Cache {
+
+    /**
+     * @return  Minified css or null if css is not cached.
+     */
+    String get(String css) throws IOException;
+
+    void put(String css, String minified) throws IOException;
+
+  }
+
+
+  private final CssEngine engine;
+
+
+  public FragmentCssEngine(CssEngine engine) {
+    this.engine = engine;
+  }
+
+
+  /**
+   * Minifies concatenated fragments without line breaking.
+   *
+   * @return  false if css can not be split into parts exactly (input is not
+   *          supported by {@link CssTokenizer}, @charset rules inside other
+   *          rules, stray semicolons between rules, etc.), nothing is
+   *          written then.
+   */
+  public boolean compress(
+      List<? extends CharSequence> fragments, Writer out, Cache cache)
+      throws IOException {
+
+    int[] ends = new int[fragments.size()];
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < ends.length; i++) {
+      sb.append(fragments.get(i));
+      ends[i] = sb.length();
+    }
+    String css = sb.toString();
+
+    CssChunker chunker = new CssChunker(css);
+    if (!chunker.split() || chunker.hasLooseCharset()) {
+      return false;
+    }
+
+    int chunks = chunker.getChunkCount();
+    int[] starts = new int[chunks];
+    boolean[] charsets = new boolean[chunks];
+    int count = 0;
+
+    int fragment = 0;
+    for (int i = 0; i < chunks; i++) {
+      int start = chunker.getChunkStart(i);
+      boolean charset = chunker.isCharset(i);
+
+      // a fragment ended inside the previous chunk
+      boolean fragmentEnded = false;
+      while (fragment < ends.length && ends[fragment] <= start) {
+        fragmentEnded = true;
+        fragment++;
+      }
+
+      if (count == 0 || fragmentEnded || charset || charsets[count - 1]) {
+        starts[count] = start;
+        charsets[count] = charset;
+        count++;
+      }
+    }
+
+    String[] results = new String[count];
+    for (int i = 0; i < count; i++) {
+      String part = css.substring(
+          starts[i], i + 1 < count ? starts[i + 1] : css.length());
+
+      String result = cache.get(part);
+      if (result == null) {
+        StringWriter writer = new StringWriter();
+        engine.compress(part, writer, -1);
+        result = writer.toString();
+        cache.put(part, result);
+      }
+      results[i] = result;
+    }
+
+    return ParallelCssEngine.join(results, charsets, count, out);
+  }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Minifies big stylesheets on several cores. Css is split at top-level rule
+ * boundaries by {@link CssChunker}, parts are minified by the wrapped engine
+ * as fork/join tasks and joined back.
+ *
+ * Output is the same as the wrapped engine gives for the whole css:
+ * @charset rules are hoisted over the joined parts the way
+ * {@link RegexCssEngine} hoists them, and css that can not be split exactly
+ * (line breaking is on, input is not supported by {@link CssTokenizer},
+ * @charset rules inside other rules, etc.) is minified in one piece.
+ */
+public class ParallelCssEngine implements CssEngine {
+
+  // smaller parts are not worth a task
+  private static final int MIN_PART_LENGTH = 32 * 1024;
+
+  private final CssEngine engine;
+  private final ForkJoinPool pool;
+
+
+  public ParallelCssEngine(CssEngine engine) {
+    this(engine, ForkJoinPool.commonPool());
+  }
+
+  public ParallelCssEngine(CssEngine engine, ForkJoinPool pool) {
+    this.engine = engine;
+    this.pool = pool;
+  }
+
+
+  public void compress(CharSequence css, Writer out, int linebreakpos)
+      throws IOException {
+
+    // line breaks depend on columns counted over the whole css
+    if (linebreakpos >= 0 || css.length() < 2 * MIN_PART_LENGTH ||
+        pool.getParallelism() < 2) {
+      engine.compress(css, out, linebreakpos);
+      return;
+    }
+
+    String source = css.toString();
+    CssChunker chunker = new CssChunker(source);
+    if (!chunker.split() || chunker.hasLooseCharset() ||
+        chunker.getChunkCount() == 1) {
+      engine.compress(source, out, linebreakpos);
+      return;
+    }
+
+    Parts parts = new Parts(chunker);
+    pool.invoke(new CompressTask(source, parts, 0, parts.count));
+
+    if (!join(parts.results, parts.charsets, parts.count, out)) {
+      engine.compress(source, out, linebreakpos);
+    }
+  }
+
+
+  /**
+   * Writes minified parts hoisting @charset rules over all of them
+   * the way {@link RegexCssEngine} does.
+   *
+   * @param charsets  Which parts are lone @charset rules,
+   *                  see {@link CssChunker#isCharset}.
+   * @return  false if the parts would not join the way the whole css is
+   *          minified, nothing is written then. A part starting with
+   *          ; or } once its leading empty rules are removed would be
+   *          merged with the previous one by the regex engine.
+   */
+  static boolean join(
+      String[] results, boolean[] charsets, int count, Writer out)
+      throws IOException {
+
+    int[] order = new int[count];
+    int ordered = 0;
+
+    int hoisted = -1;
+    for (int i = 0; i < count; i++) {
+      if (charsets[i]) {
+        hoisted = i;
+      }
+    }
+    if (hoisted < 0) {
+      for (int i = 0; i < count; i++) {
+        order[ordered++] = i;
+      }
+    } else {
+      // the last @charset rule goes first, then the rules right after it
+      // collapse into the last @charset of the run
+      int kept = hoisted;
+      int next = 0;
+      while (next < count && (next == hoisted || charsets[next])) {
+        if (next != hoisted) {
+          kept = next;
+        }
+        next++;
+      }
+      order[ordered++] = kept;
+      for (int i = next; i < count; i++) {
+        if (i != hoisted) {
+          order[ordered++] = i;
+        }
+      }
+    }
+
+    boolean first = true;
+    for (int i = 0; i < ordered; i++) {
+      String result = results[order[i]];
+      if (result.length() == 0) {
+        continue;
+      }
+      if (!first && (result.charAt(0) == ';' || result.charAt(0) == '}')) {
+        return false;
+      }
+      first = false;
+    }
+
+    for (int i = 0; i < ordered; i++) {
+      out.write(results[order[i]]);
+    }
+    return true;
+  }
+
+
+  /**
+   * Consecutive chunks merged up to MIN_PART_LENGTH,
+   * @charset rules are kept on their own.
+   */
+  private static final class Parts {
+
+    final int[] starts;
+    final int[] ends;
+    final boolean[] charsets;
+    final String[] results;
+    int count;
+
+    Parts(CssChunker chunker) {
+      int chunks = chunker.getChunkCount();
+      starts = new int[chunks];
+      ends = new int[chunks];
+      charsets = new boolean[chunks];
+
+      for (int i = 0; i < chunks; i++) {
+        boolean charset = chunker.isCharset(i);
+        if (count > 0 && !charset && !charsets[count - 1] &&
+            ends[count - 1] - starts[count - 1] < MIN_PART_LENGTH) {
+          ends[count - 1] = chunker.getChunkEnd(i);
+          continue;
+        }
+        starts[count] = chunker.getChunkStart(i);
+        ends[count] = chunker.getChunkEnd(i);
+        charsets[count] = charset;
+        count++;
+      }
+      results = new String[count];
+    }
+  }
+
+
+  private final class CompressTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String css;
+    private final Parts parts;
+    private final int from;
+    private final int to;
+
+    CompressTask(String css, Parts parts, int from, int to) {
+      this.css = css;
+      this.parts = parts;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(
+            new CompressTask(css, parts, from, middle),
+            new CompressTask(css, parts, middle, to));
+        return;
+      }
+
+      StringWriter result = new StringWriter();
+      try {
+        engine.compress(
+            css.substring(parts.starts[from], parts.ends[from]), result, -1);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      parts.results[from] = result.toString();
+    }
+  }
+
+}
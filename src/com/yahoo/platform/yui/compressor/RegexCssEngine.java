@@ -0,0 +1,872 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Author: Isaac Schlueter - http://foohack.com/
+ * Author: Stoyan Stefanov - http://phpied.com/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The YUI CSS minifier as a sequence of regex replaces.
+ *
+ * All patterns are compiled once per class. Intermediate buffers and token
+ * lists live in a per-thread {@link Scratch}, so one instance can be shared
+ * by any number of threads.
+ */
+public class RegexCssEngine implements CssEngine {
+
+  static final String TOKEN_PLACEHOLDER =
+      "___YUICSSMIN_PRESERVED_TOKEN_";
+
+  private static final String COMMENT_PLACEHOLDER =
+      "___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_";
+
+  private static final String PLACEHOLDER_END = "___";
+
+  private static final Pattern DATA_URL =
+      Pattern.compile("url\\(\\s*([\"']?)data\\:");
+
+  private static final Pattern STRING =
+      Pattern.compile("(\"([^\\\\\"]|\\\\.|\\\\)*\")|(\'([^\\\\\']|\\\\.|\\\\)*\')");
+
+  private static final Pattern ALPHA_OPACITY =
+      Pattern.compile("(?i)progid:DXImageTransform.Microsoft.Alpha\\(Opacity=");
+
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private static final Pattern PSEUDO_CLASS_SELECTOR =
+      Pattern.compile("(^|\\})(([^\\{:])+:)+([^\\{]*\\{)");
+
+  private static final Pattern COLON = Pattern.compile(":");
+
+  private static final Pattern BACKSLASH = Pattern.compile("\\\\");
+
+  private static final Pattern DOLLAR = Pattern.compile("\\$");
+
+  private static final Pattern SPACE_BEFORE =
+      Pattern.compile("\\s+([!{};:>+\\(\\)\\],])");
+
+  private static final Pattern PSEUDO_CLASS_COLON =
+      Pattern.compile("___YUICSSMIN_PSEUDOCLASSCOLON___");
+
+  private static final Pattern FIRST_LETTER =
+      Pattern.compile(":first\\-(line|letter)(\\{|,)");
+
+  private static final Pattern COMMENT_END_SPACE = Pattern.compile("\\*/ ");
+
+  private static final Pattern CHARSET_HOIST =
+      Pattern.compile("^(.*)(@charset \"[^\"]*\";)");
+
+  private static final Pattern CHARSET_REPEAT =
+      Pattern.compile("^(\\s*@charset [^;]+;\\s*)+");
+
+  private static final Pattern MEDIA_AND = Pattern.compile("\\band\\(");
+
+  private static final Pattern SPACE_AFTER =
+      Pattern.compile("([!{}:;>+\\(\\[,])\\s+");
+
+  private static final Pattern LAST_SEMICOLON = Pattern.compile(";+}");
+
+  private static final Pattern ZERO_UNITS =
+      Pattern.compile("([\\s:])(0)(px|em|%|in|cm|mm|pc|pt|ex)");
+
+  private static final Pattern ZERO_4 = Pattern.compile(":0 0 0 0(;|})");
+
+  private static final Pattern ZERO_3 = Pattern.compile(":0 0 0(;|})");
+
+  private static final Pattern ZERO_2 = Pattern.compile(":0 0(;|})");
+
+  private static final Pattern ZERO_POSITION = Pattern.compile(
+      "(?i)(background-position|transform-origin|webkit-transform-origin|moz-transform-origin|o-transform-origin|ms-transform-origin):0(;|})");
+
+  private static final Pattern LEADING_ZEROS =
+      Pattern.compile("(:|\\s)0+\\.(\\d+)");
+
+  private static final Pattern RGB =
+      Pattern.compile("rgb\\s*\\(\\s*([0-9,\\s]+)\\s*\\)");
+
+  private static final Pattern HEX_COLOR = Pattern.compile(
+      "(\\=\\s*?[\"']?)?" +
+      "#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])" +
+      "(:?\\}|[^0-9a-fA-F{][^{]*?\\})");
+
+  private static final Pattern NONE_VALUE = Pattern.compile(
+      "(?i)(border|border-top|border-right|border-bottom|border-right|outline|background):none(;|})");
+
+  private static final Pattern EMPTY_RULE =
+      Pattern.compile("[^\\}\\{/;]+\\{\\}");
+
+  private static final Pattern SEMICOLONS = Pattern.compile(";;+");
+
+  /**
+   * Buffers grown above this size by a huge stylesheet are not kept
+   * for the next call.
+   */
+  private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+  private static final ThreadLocal<Scratch> scratch =
+      new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+          return new Scratch();
+        }
+      };
+
+
+  public void compress(CharSequence input, Writer out, int linebreakpos)
+      throws IOException {
+
+    Scratch scratch = RegexCssEngine.scratch.get();
+    try {
+      compress(input.toString(), linebreakpos, scratch, out);
+    } finally {
+      scratch.release();
+    }
+  }
+
+
+  // Leave data urls alone to increase parse performance.
+  String extractDataUrls(String css, List<String> preservedTokens) {
+    return extractDataUrls(css, preservedTokens, null, null);
+  }
+
+  /**
+   * With a store given, data url bodies go there and their preserved
+   * tokens are left null, ids of the entries are added to dataUrlIds.
+   */
+  private String extractDataUrls(
+      String css, List<String> preservedTokens,
+      DataUrlStore dataUrls, List<Integer> dataUrlIds) {
+
+    int maxIndex = css.length() - 1;
+    int appendIndex = 0;
+
+    StringBuilder sb = new StringBuilder(css.length());
+
+    Matcher m = DATA_URL.matcher(css);
+
+
+    /*
+    * Since we need to account for non-base64 data urls, we need to handle
+    * ' and ) being part of the data string. Hence switching to indexOf,
+    * to determine whether or not we have matching string terminators and
+    * handling sb appends directly, instead of using matcher.append* methods.
+    */
+
+    while (m.find()) {
+
+      int startIndex = m.start() + 4;  	// "url(".length()
+      String terminator = m.group(1);     // ', " or empty (not quoted)
+
+      if (terminator.length() == 0) {
+        terminator = ")";
+      }
+
+      boolean foundTerminator = false;
+
+      int endIndex = m.end() - 1;
+      while(foundTerminator == false && endIndex+1 <= maxIndex) {
+        endIndex = css.indexOf(terminator, endIndex+1);
+
+        if ((endIndex > 0) && (css.charAt(endIndex-1) != '\\')) {
+          foundTerminator = true;
+          if (!")".equals(terminator)) {
+            endIndex = css.indexOf(")", endIndex);
+          }
+        }
+      }
+
+      // Enough searching, start moving stuff over to the buffer
+      sb.append(css.substring(appendIndex, m.start()));
+
+      if (foundTerminator) {
+        if (dataUrls != null) {
+          dataUrlIds.add(dataUrls.add(css, startIndex, endIndex));
+          preservedTokens.add(null);
+        } else {
+          String token = css.substring(startIndex, endIndex);
+          token = WHITESPACE.matcher(token).replaceAll("");
+          preservedTokens.add(token);
+        }
+
+        sb.append("url(___YUICSSMIN_PRESERVED_TOKEN_")
+            .append(preservedTokens.size() - 1)
+            .append("___)");
+
+        appendIndex = endIndex + 1;
+      } else {
+        // No end terminator found, re-add the whole match. Should we throw/warn here?
+        sb.append(css, m.start(), m.end());
+        appendIndex = m.end();
+      }
+    }
+
+    sb.append(css, appendIndex, css.length());
+
+    return sb.toString();
+  }
+
+
+  private void compress(
+      String css, int linebreakpos, Scratch scratch, Writer out)
+      throws IOException {
+
+    Matcher m;
+
+    int i = 0;
+    List<String> preservedTokens = scratch.preservedTokens;
+    List<String> comments = scratch.comments;
+    String token;
+    int totallen = css.length();
+
+    boolean sourceHasPlaceholders = css.indexOf("___YUICSSMIN_") >= 0;
+
+    // with placeholder text in the source, data urls may need to be
+    // restored inside other tokens, keep them in the token list then
+    DataUrlStore dataUrls = sourceHasPlaceholders ? null : scratch.dataUrls;
+
+    css = extractDataUrls(
+        css, preservedTokens, dataUrls, scratch.dataUrlIds);
+
+    // collect all comment blocks...
+    css = collectComments(css, totallen, comments, scratch.buffer());
+
+    // preserve strings so their content doesn't get accidentally minified
+    StringBuffer sb = scratch.buffer();
+    m = STRING.matcher(css);
+    while (m.find()) {
+      token = m.group();
+      char quote = token.charAt(0);
+      token = token.substring(1, token.length() - 1);
+
+      // maybe the string contains a comment-like substring?
+      // one, maybe more? put'em back then
+      if (token.indexOf(COMMENT_PLACEHOLDER) >= 0) {
+        token = restore(token, COMMENT_PLACEHOLDER, comments, new StringBuffer());
+      }
+
+      // minify alpha opacity in filter strings
+      token = ALPHA_OPACITY.matcher(token).replaceAll("alpha(opacity=");
+
+      preservedTokens.add(token);
+      String preserver = quote + "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___" + quote;
+      m.appendReplacement(sb, preserver);
+    }
+    m.appendTail(sb);
+    css = sb.toString();
+
+
+    // strings are safe, now wrestle the comments
+    if (sourceHasPlaceholders) {
+      css = wrestleCommentsInPlace(css, comments, preservedTokens);
+    } else {
+      css = wrestleComments(css, comments, preservedTokens, scratch.buffer());
+    }
+
+
+    // Normalize all whitespace strings to single spaces. Easier to work with that way.
+    css = WHITESPACE.matcher(css).replaceAll(" ");
+
+    // Remove the spaces before the things that should not have spaces before them.
+    // But, be careful not to turn "p :link {...}" into "p:link{...}"
+    // Swap out any pseudo-class colons with the token, and then swap back.
+    sb = scratch.buffer();
+    m = PSEUDO_CLASS_SELECTOR.matcher(css);
+    while (m.find()) {
+      String s = m.group();
+      s = COLON.matcher(s).replaceAll("___YUICSSMIN_PSEUDOCLASSCOLON___");
+      s = BACKSLASH.matcher(s).replaceAll("\\\\\\\\");
+      s = DOLLAR.matcher(s).replaceAll("\\\\\\$");
+      m.appendReplacement(sb, s);
+    }
+    m.appendTail(sb);
+    css = sb.toString();
+    // Remove spaces before the things that should not have spaces before them.
+    css = SPACE_BEFORE.matcher(css).replaceAll("$1");
+    // bring back the colon
+    css = PSEUDO_CLASS_COLON.matcher(css).replaceAll(":");
+
+    // retain space for special IE6 cases
+    css = FIRST_LETTER.matcher(css).replaceAll(":first-$1 $2");
+
+    // no space after the end of a preserved comment
+    css = COMMENT_END_SPACE.matcher(css).replaceAll("*/");
+
+    // If there is a @charset, then only allow one, and push to the top of the file.
+    css = CHARSET_HOIST.matcher(css).replaceAll("$2$1");
+    css = CHARSET_REPEAT.matcher(css).replaceAll("$1");
+
+    // Put the space back in some cases, to support stuff like
+    // @media screen and (-webkit-min-device-pixel-ratio:0){
+    css = MEDIA_AND.matcher(css).replaceAll("and (");
+
+    // Remove the spaces after the things that should not have spaces after them.
+    css = SPACE_AFTER.matcher(css).replaceAll("$1");
+
+    // remove unnecessary semicolons
+    css = LAST_SEMICOLON.matcher(css).replaceAll("}");
+
+    // Replace 0(px,em,%) with 0.
+    css = ZERO_UNITS.matcher(css).replaceAll("$1$2");
+
+    // Replace 0 0 0 0; with 0.
+    css = ZERO_4.matcher(css).replaceAll(":0$1");
+    css = ZERO_3.matcher(css).replaceAll(":0$1");
+    css = ZERO_2.matcher(css).replaceAll(":0$1");
+
+
+    // Replace background-position:0; with background-position:0 0;
+    // same for transform-origin
+    sb = scratch.buffer();
+    m = ZERO_POSITION.matcher(css);
+    while (m.find()) {
+      m.appendReplacement(sb, m.group(1).toLowerCase() + ":0 0" + m.group(2));
+    }
+    m.appendTail(sb);
+    css = sb.toString();
+
+    // Replace 0.6 to .6, but only when preceded by : or a white-space
+    css = LEADING_ZEROS.matcher(css).replaceAll("$1.$2");
+
+    css = shortenRgbColors(css, scratch.buffer());
+    css = shortenHexColors(css, scratch.buffer());
+
+    // border: none -> border:0
+    sb = scratch.buffer();
+    m = NONE_VALUE.matcher(css);
+    while (m.find()) {
+      m.appendReplacement(sb, m.group(1).toLowerCase() + ":0" + m.group(2));
+    }
+    m.appendTail(sb);
+    css = sb.toString();
+
+    // shorter opacity IE filter
+    css = ALPHA_OPACITY.matcher(css).replaceAll("alpha(opacity=");
+
+    // Remove empty rules.
+    css = EMPTY_RULE.matcher(css).replaceAll("");
+
+    // TODO: Should this be after we re-insert tokens. These could alter the break points. However then
+    // we'd need to make sure we don't break in the middle of a string etc.
+    if (linebreakpos >= 0) {
+      // Some source control tools don't like it when files containing lines longer
+      // than, say 8000 characters, are checked in. The linebreak option is used in
+      // that case to split long lines after a specific column.
+      i = 0;
+      int linestartpos = 0;
+      sb = scratch.buffer();
+      sb.append(css);
+      while (i < sb.length()) {
+        char c = sb.charAt(i++);
+        if (c == '}' && i - linestartpos > linebreakpos) {
+          sb.insert(i, '\n');
+          linestartpos = i;
+        }
+      }
+
+      css = sb.toString();
+    }
+
+    // Replace multiple semi-colons in a row by a single one
+    // See SF bug #1980989
+    css = SEMICOLONS.matcher(css).replaceAll(";");
+
+    if (dataUrls == null) {
+      // restore preserved comments and strings
+      css = restore(css, TOKEN_PLACEHOLDER, preservedTokens, scratch.buffer());
+
+      // Trim the final string (for any leading or trailing white spaces)
+      out.write(css.trim());
+      return;
+    }
+
+    // Data urls are only marked in the buffer and written from the store.
+    StringBuffer buffer = scratch.buffer();
+    List<Integer> marks = scratch.dataUrlMarks;
+    if (restore(css, TOKEN_PLACEHOLDER, preservedTokens, 0, buffer,
+        scratch.dataUrlIds, marks)) {
+
+      // trim the buffer unless a data url is at the edge
+      int start = 0;
+      int end = buffer.length();
+      while (start < end && buffer.charAt(start) <= ' ') {
+        start++;
+      }
+      while (end > start && buffer.charAt(end - 1) <= ' ') {
+        end--;
+      }
+      if (marks.isEmpty() ||
+          marks.get(0) > start && marks.get(marks.size() - 2) < end) {
+        int written = start;
+        for (int k = 0; k < marks.size(); k += 2) {
+          int offset = marks.get(k);
+          out.write(buffer.substring(written, offset));
+          dataUrls.write(marks.get(k + 1), out);
+          written = offset;
+        }
+        out.write(buffer.substring(written, end));
+        return;
+      }
+    }
+
+    // a placeholder cut by an unterminated comment or a data url to trim
+    for (int k = 0; k < scratch.dataUrlIds.size(); k++) {
+      preservedTokens.set(k, dataUrls.get(scratch.dataUrlIds.get(k)));
+    }
+    css = restore(css, TOKEN_PLACEHOLDER, preservedTokens, scratch.buffer());
+    out.write(css.trim());
+  }
+
+
+
+  // Shorten colors from rgb(51,102,153) to #336699
+  // This makes it more likely that it'll get further compressed in the next step.
+  static String shortenRgbColors(String css, StringBuffer sb) {
+    Matcher m = RGB.matcher(css);
+    while (m.find()) {
+      String[] rgbcolors = m.group(1).split(",");
+      StringBuilder hexcolor = new StringBuilder("#");
+      for (int i = 0; i < rgbcolors.length; i++) {
+        int val = Integer.parseInt(rgbcolors[i]);
+        if (val < 16) {
+          hexcolor.append("0");
+        }
+        hexcolor.append(Integer.toHexString(val));
+      }
+      m.appendReplacement(sb, hexcolor.toString());
+    }
+    m.appendTail(sb);
+    return sb.toString();
+  }
+
+  // Shorten colors from #AABBCC to #ABC. Note that we want to make sure
+  // the color is not preceded by either ", " or =. Indeed, the property
+  //     filter: chroma(color="#FFFFFF");
+  // would become
+  //     filter: chroma(color="#FFF");
+  // which makes the filter break in IE.
+  // We also want to make sure we're only compressing #AABBCC patterns inside { }, not id selectors ( #FAABAC {} )
+  // We also want to avoid compressing invalid values (e.g. #AABBCCD to #ABCD)
+  static String shortenHexColors(String css, StringBuffer sb) {
+    Matcher m = HEX_COLOR.matcher(css);
+    int index = 0;
+
+    while (m.find(index)) {
+
+      sb.append(css, index, m.start());
+
+      boolean isFilter = (m.group(1) != null && !"".equals(m.group(1)));
+
+      if (isFilter) {
+        // Restore, as is. Compression will break filters
+        sb.append(m.group(1) + "#" + m.group(2) + m.group(3) + m.group(4) + m.group(5) + m.group(6) + m.group(7));
+      } else {
+        if( m.group(2).equalsIgnoreCase(m.group(3)) &&
+            m.group(4).equalsIgnoreCase(m.group(5)) &&
+            m.group(6).equalsIgnoreCase(m.group(7))) {
+
+          // #AABBCC pattern
+          sb.append("#" + (m.group(3) + m.group(5) + m.group(7)).toLowerCase());
+
+        } else {
+
+          // Non-compressible color, restore, but lower case.
+          sb.append("#" + (m.group(2) + m.group(3) + m.group(4) + m.group(5) + m.group(6) + m.group(7)).toLowerCase());
+        }
+      }
+
+      index = m.end(7);
+    }
+
+    sb.append(css, index, css.length());
+    return sb.toString();
+  }
+
+
+  /**
+   * Replaces the body of every comment with a candidate placeholder
+   * and collects the bodies, in a single scan.
+   */
+  static String collectComments(
+      String css, int totallen, List<String> comments, StringBuffer sb) {
+
+    int appendIndex = 0;
+    int startIndex = 0;
+    int endIndex;
+
+    while ((startIndex = css.indexOf("/*", startIndex)) >= 0) {
+      endIndex = css.indexOf("*/", startIndex + 2);
+      if (endIndex < 0) {
+        // Unterminated comment runs up to the length of the source
+        // as it was before extracting data urls, taken in the buffer
+        // with all previous comments already replaced. Finish in place.
+        startIndex += sb.length() - appendIndex;
+        sb.append(css, appendIndex, css.length());
+        collectCommentsInPlace(sb, startIndex, totallen, comments);
+        return sb.toString();
+      }
+
+      comments.add(css.substring(startIndex + 2, endIndex));
+      sb.append(css, appendIndex, startIndex + 2)
+          .append(COMMENT_PLACEHOLDER)
+          .append(comments.size() - 1)
+          .append(PLACEHOLDER_END);
+
+      // the closing slash may open the next comment
+      appendIndex = startIndex = endIndex;
+    }
+
+    sb.append(css, appendIndex, css.length());
+    return sb.toString();
+  }
+
+  private static void collectCommentsInPlace(
+      StringBuffer sb, int startIndex, int totallen, List<String> comments) {
+
+    int endIndex;
+    while ((startIndex = sb.indexOf("/*", startIndex)) >= 0) {
+      endIndex = sb.indexOf("*/", startIndex + 2);
+      if (endIndex < 0) {
+        endIndex = totallen;
+      }
+
+      comments.add(sb.substring(startIndex + 2, endIndex));
+      sb.replace(startIndex + 2, endIndex, COMMENT_PLACEHOLDER + (comments.size() - 1) + PLACEHOLDER_END);
+      startIndex += 2;
+    }
+  }
+
+
+  /**
+   * Preserves, shortens or removes collected comments in a single scan.
+   * Comments that went into strings have no placeholder here, but still
+   * take their preserved tokens, so numbering stays the same as in
+   * {@link #wrestleCommentsInPlace}.
+   *
+   * Requires the source to be free of placeholder text, so that every
+   * candidate placeholder found is the one put by collectComments().
+   */
+  static String wrestleComments(
+      String css, List<String> comments, List<String> preservedTokens,
+      StringBuffer sb) {
+
+    int max = comments.size();
+
+    int[] placeholderStarts = new int[max];
+    Arrays.fill(placeholderStarts, -1);
+
+    int startIndex = 0;
+    while ((startIndex = css.indexOf(COMMENT_PLACEHOLDER, startIndex)) >= 0) {
+      int endIndex = placeholderEnd(css, startIndex);
+      placeholderStarts[parsePlaceholderIndex(css, startIndex, endIndex)] =
+          startIndex;
+      startIndex = endIndex;
+    }
+
+    int appendIndex = 0;
+
+    for (int i = 0; i < max; i += 1) {
+
+      String token = comments.get(i);
+      startIndex = placeholderStarts[i];
+
+      // ! in the first position of the comment means preserve
+      // so push to the preserved tokens while stripping the !
+      if (token.startsWith("!")) {
+        preservedTokens.add(token);
+        if (startIndex >= 0) {
+          appendIndex = appendPreservedToken(
+              css, appendIndex, startIndex, preservedTokens.size() - 1, sb);
+        }
+        continue;
+      }
+
+      // \ in the last position looks like hack for Mac/IE5
+      // shorten that to /*\*/ and the next one to /**/
+      if (token.endsWith("\\")) {
+        preservedTokens.add("\\");
+        if (startIndex >= 0) {
+          appendIndex = appendPreservedToken(
+              css, appendIndex, startIndex, preservedTokens.size() - 1, sb);
+        }
+
+        i = i + 1; // attn: advancing the loop
+        preservedTokens.add("");
+        if (i < max && placeholderStarts[i] >= 0) {
+          appendIndex = appendPreservedToken(
+              css, appendIndex, placeholderStarts[i],
+              preservedTokens.size() - 1, sb);
+        }
+        continue;
+      }
+
+      if (startIndex < 0) {
+        continue;
+      }
+
+      int endIndex = placeholderEnd(css, startIndex);
+      sb.append(css, appendIndex, startIndex);
+      int length = sb.length();
+
+      // keep empty comments after child selectors (IE7 hack)
+      // e.g. html >/**/ body
+      if (token.length() == 0 && length > 2 && sb.charAt(length - 3) == '>') {
+        preservedTokens.add("");
+        appendIndex = appendPreservedToken(
+            css, startIndex, startIndex, preservedTokens.size() - 1, sb);
+
+      // in all other cases kill the comment, unless a previous one
+      // took its opening slash or it is not terminated
+      } else if (length >= 2 &&
+          sb.charAt(length - 2) == '/' && sb.charAt(length - 1) == '*' &&
+          css.startsWith("*/", endIndex)) {
+
+        sb.setLength(length - 2);
+        appendIndex = endIndex + 2;
+
+      } else {
+        appendIndex = startIndex;
+      }
+    }
+
+    sb.append(css, appendIndex, css.length());
+    return sb.toString();
+  }
+
+  /**
+   * The original per-comment loop, each step rewriting the whole string.
+   * Used when the source contains placeholder text itself.
+   */
+  private static String wrestleCommentsInPlace(
+      String css, List<String> comments, List<String> preservedTokens) {
+
+    int startIndex;
+
+    for (int i = 0, max = comments.size(); i < max; i += 1) {
+
+      String token = comments.get(i);
+      String placeholder = COMMENT_PLACEHOLDER + i + PLACEHOLDER_END;
+
+      // ! in the first position of the comment means preserve
+      // so push to the preserved tokens while stripping the !
+      if (token.startsWith("!")) {
+        preservedTokens.add(token);
+        css = css.replace(placeholder,  TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
+        continue;
+      }
+
+      // \ in the last position looks like hack for Mac/IE5
+      // shorten that to /*\*/ and the next one to /**/
+      if (token.endsWith("\\")) {
+        preservedTokens.add("\\");
+        css = css.replace(placeholder,  TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
+        i = i + 1; // attn: advancing the loop
+        preservedTokens.add("");
+        css = css.replace(COMMENT_PLACEHOLDER + i + PLACEHOLDER_END,  TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
+        continue;
+      }
+
+      // keep empty comments after child selectors (IE7 hack)
+      // e.g. html >/**/ body
+      if (token.length() == 0) {
+        startIndex = css.indexOf(placeholder);
+        if (startIndex > 2) {
+          if (css.charAt(startIndex - 3) == '>') {
+            preservedTokens.add("");
+            css = css.replace(placeholder,  TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
+          }
+        }
+      }
+
+      // in all other cases kill the comment
+      css = css.replace("/*" + placeholder + "*/", "");
+    }
+
+    return css;
+  }
+
+  private static int appendPreservedToken(
+      String css, int appendIndex, int placeholderStart, int tokenIndex,
+      StringBuffer sb) {
+
+    sb.append(css, appendIndex, placeholderStart)
+        .append(TOKEN_PLACEHOLDER)
+        .append(tokenIndex)
+        .append(PLACEHOLDER_END);
+
+    return placeholderEnd(css, placeholderStart);
+  }
+
+  /**
+   * @return  Index right after the candidate comment placeholder
+   *          starting at the given position.
+   */
+  private static int placeholderEnd(String css, int placeholderStart) {
+    return css.indexOf(
+        PLACEHOLDER_END, placeholderStart + COMMENT_PLACEHOLDER.length()) +
+        PLACEHOLDER_END.length();
+  }
+
+  private static int parsePlaceholderIndex(
+      String css, int placeholderStart, int placeholderEnd) {
+
+    return Integer.parseInt(
+        css.substring(
+            placeholderStart + COMMENT_PLACEHOLDER.length(),
+            placeholderEnd - PLACEHOLDER_END.length()));
+  }
+
+
+  /**
+   * Replaces every placeholder (prefix + index + "___") with its value
+   * from the table in one forward pass.
+   *
+   * The result is the same as of calling replace() for each index
+   * in ascending order: a value restored for index i may contain
+   * placeholders of its own, and only those with index above i
+   * get restored too.
+   */
+  static String restore(
+      String css, String prefix, List<String> table, StringBuffer sb) {
+
+    if (!restore(css, prefix, table, 0, sb, null, null)) {
+      // Placeholder text glued to other placeholder-like characters
+      // (only possible when the source contains placeholders itself),
+      // the result depends on replacement order.
+      for (int i = 0, max = table.size(); i < max; i++) {
+        css = css.replace(prefix + i + PLACEHOLDER_END, table.get(i));
+      }
+      return css;
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Values of data urls kept in a store are null in the table, for those
+   * buffer length and entry id are added to marks.
+   *
+   * @return  false if a placeholder has a word character next to it,
+   *          so that restoring it could form or break another one.
+   */
+  private static boolean restore(
+      String css, String prefix, List<String> table, int minIndex,
+      StringBuffer sb, List<Integer> dataUrlIds, List<Integer> marks) {
+
+    int appendIndex = 0;
+    int startIndex = 0;
+    int placeholderStart;
+
+    while ((placeholderStart = css.indexOf(prefix, startIndex)) >= 0) {
+      startIndex = placeholderStart + 1;
+
+      int digitsStart = placeholderStart + prefix.length();
+      int digitsEnd = digitsStart;
+      while (digitsEnd < css.length() && isDigit(css.charAt(digitsEnd))) {
+        digitsEnd++;
+      }
+
+      int digits = digitsEnd - digitsStart;
+      if (digits == 0 || digits > 9 ||
+          (digits > 1 && css.charAt(digitsStart) == '0') ||
+          !css.startsWith(PLACEHOLDER_END, digitsEnd)) {
+        continue;
+      }
+
+      int index = Integer.parseInt(css.substring(digitsStart, digitsEnd));
+      if (index < minIndex || index >= table.size()) {
+        continue;
+      }
+
+      int placeholderEnd = digitsEnd + PLACEHOLDER_END.length();
+      if ((placeholderStart > 0 &&
+              isWordChar(css.charAt(placeholderStart - 1))) ||
+          (placeholderEnd < css.length() &&
+              isWordChar(css.charAt(placeholderEnd)))) {
+        return false;
+      }
+
+      sb.append(css, appendIndex, placeholderStart);
+      String value = table.get(index);
+      if (value == null) {
+        marks.add(sb.length());
+        marks.add(dataUrlIds.get(index));
+      } else if (!restore(value, prefix, table, index + 1, sb,
+          dataUrlIds, marks)) {
+        return false;
+      }
+
+      appendIndex = startIndex = placeholderEnd;
+    }
+
+    sb.append(css, appendIndex, css.length());
+    return true;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isWordChar(char c) {
+    return isDigit(c) || c == '_' ||
+        (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+
+
+  /**
+   * Per-thread working storage reused between calls.
+   */
+  private static final class Scratch {
+
+    private StringBuffer buffer = new StringBuffer();
+
+    final List<String> preservedTokens = new ArrayList<String>();
+
+    final List<String> comments = new ArrayList<String>();
+
+    final DataUrlStore dataUrls = new DataUrlStore();
+
+    final List<Integer> dataUrlIds = new ArrayList<Integer>();
+
+    // pairs of buffer offset and data url id
+    final List<Integer> dataUrlMarks = new ArrayList<Integer>();
+
+
+    /**
+     * Returns the shared buffer emptied. Contents of the previous step
+     * must have been copied out with toString() before the call.
+     */
+    StringBuffer buffer() {
+      buffer.setLength(0);
+      return buffer;
+    }
+
+    void release() {
+      buffer.setLength(0);
+      if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+        buffer = new StringBuffer();
+      }
+
+      preservedTokens.clear();
+      comments.clear();
+      dataUrls.clear();
+      dataUrlIds.clear();
+      dataUrlMarks.clear();
+    }
+
+  }
+
+}
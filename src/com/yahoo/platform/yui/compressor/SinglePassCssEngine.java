@@ -0,0 +1,1315 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * CSS minifier producing byte for byte the same output as
+ * {@link RegexCssEngine}, but in one linear pass over the input.
+ *
+ * {@link CssTokenizer} turns the source into characters and preserved
+ * tokens, which then flow through a chain of small state machines,
+ * one per replacement of {@link RegexCssEngine} and in the same
+ * order. Each stage holds back only as much as its pattern needs to decide
+ * on a match, so no intermediate copies of the stylesheet are created.
+ *
+ * Inputs relying on quirks of the regex engine that the tokenizer does not
+ * reproduce (unterminated comments or strings, broken data urls) are
+ * handed over to {@link RegexCssEngine} as is.
+ *
+ * The engine keeps no state between calls and can be shared.
+ */
+public class SinglePassCssEngine implements CssEngine {
+
+  private static final int ATOM = CssTokenizer.ATOM;
+
+  private static final int NEED_MORE = -1;
+
+  private static final CssEngine FALLBACK = new RegexCssEngine();
+
+
+  public void compress(CharSequence css, Writer out, int linebreakpos)
+      throws IOException {
+
+    String result;
+    try {
+      result = minify(css, linebreakpos);
+    } catch (CssTokenizer.UnsupportedInputException e) {
+      FALLBACK.compress(css, out, linebreakpos);
+      return;
+    }
+
+    out.write(result);
+  }
+
+
+  private static String minify(CharSequence css, int linebreakpos) {
+    CssTokenizer tokenizer = new CssTokenizer(css);
+    Result result = new Result(tokenizer, css.length());
+
+    Stage[] stages = {
+        new CollapseWhitespace(),
+        new RemoveSpaceBefore(),
+        new FirstLetterSpace(),
+        new PreservedCommentSpace(),
+        new HoistCharset(
+            CssTokenizer.indexOf(css, "@charset", 0) >= 0),
+        new MediaAndSpace(),
+        new RemoveSpaceAfter(),
+        new RemoveLastSemicolon(),
+        new ZeroUnits(),
+        new ZeroValues(),
+        new ZeroPositions(),
+        new LeadingZeros(),
+        new RgbColors(),
+        new HexColors(),
+        new NoneValues(),
+        new AlphaOpacity(),
+        new EmptyRules(),
+        new LineBreaks(tokenizer, linebreakpos),
+        new Semicolons()
+    };
+
+    for (int i = 0; i < stages.length; i++) {
+      stages[i].next = i + 1 < stages.length ? stages[i + 1] : result;
+    }
+
+    tokenizer.tokenize(stages[0]);
+    stages[0].finish();
+
+    return result.toString();
+  }
+
+
+
+  private abstract static class Stage implements CssTokenizer.Output {
+
+    Stage next;
+
+    public abstract void push(int symbol);
+
+    void finish() {
+      next.finish();
+    }
+
+    void emit(int symbol) {
+      next.push(symbol);
+    }
+
+    void emit(String s) {
+      for (int i = 0; i < s.length(); i++) {
+        emit(s.charAt(i));
+      }
+    }
+
+    void emitLowerCase(int[] buffer, int from, int to) {
+      StringBuilder sb = new StringBuilder(to - from);
+      for (int i = from; i < to; i++) {
+        sb.append((char) buffer[i]);
+      }
+      emit(sb.toString().toLowerCase());
+    }
+
+  }
+
+
+  /**
+   * Stage applying a pattern at every position of its input, the way
+   * replaceAll() does: leftmost match first, no overlaps. Symbols that
+   * can't start a match go through without being buffered.
+   */
+  private abstract static class Rewriter extends Stage {
+
+    private final IntBuffer buffer = new IntBuffer();
+
+    /**
+     * @return  Length of the match at buffer[from], 0 if there is none,
+     *          or NEED_MORE if it can't be decided yet.
+     */
+    abstract int match(int[] buffer, int from, int to, boolean eof);
+
+    abstract void replace(int[] buffer, int from, int length);
+
+    abstract boolean canStart(int symbol);
+
+    @Override
+    public void push(int symbol) {
+      if (buffer.size == 0 && !canStart(symbol)) {
+        emit(symbol);
+        return;
+      }
+      buffer.add(symbol);
+      drain(false);
+    }
+
+    @Override
+    void finish() {
+      drain(true);
+      super.finish();
+    }
+
+    private void drain(boolean eof) {
+      int[] symbols = buffer.symbols;
+      int from = 0;
+      while (from < buffer.size) {
+        if (!canStart(symbols[from])) {
+          emit(symbols[from++]);
+          continue;
+        }
+        int length = match(symbols, from, buffer.size, eof);
+        if (length == NEED_MORE) {
+          break;
+        }
+        if (length > 0) {
+          replace(symbols, from, length);
+          from += length;
+        } else {
+          emit(symbols[from++]);
+        }
+      }
+      buffer.removeFirst(from);
+    }
+
+  }
+
+
+  /**
+   * Normalize all whitespace strings to single spaces.
+   */
+  private static final class CollapseWhitespace extends Stage {
+
+    private boolean space;
+
+    @Override
+    public void push(int symbol) {
+      if (CssTokenizer.isSpace(symbol)) {
+        space = true;
+        return;
+      }
+      if (CssTokenizer.isLineTerminator(symbol)) {
+        // . in the later patterns would stop there
+        throw new CssTokenizer.UnsupportedInputException("line terminator");
+      }
+      if (space) {
+        space = false;
+        emit(' ');
+      }
+      emit(symbol);
+    }
+
+    @Override
+    void finish() {
+      if (space) {
+        space = false;
+        emit(' ');
+      }
+      super.finish();
+    }
+
+  }
+
+
+  /**
+   * Remove the spaces before the things that should not have spaces before
+   * them, but keep them before pseudo-class colons: "p :link {...}".
+   *
+   * The regex engine protects colons of any text that starts the stylesheet
+   * or follows a }, runs up to a { and has at least one character before
+   * its first colon. Whether a { follows is only known later, so the output
+   * is held back from the first such space up to the {.
+   */
+  private static final class RemoveSpaceBefore extends Stage {
+
+    private static final int SELECTOR_START = 0;
+    private static final int SELECTOR = 1;
+    private static final int NOT_SELECTOR = 2;
+    private static final int BLOCK = 3;
+
+    private static final int KEPT_SPACE = -2;
+
+    private int state = SELECTOR_START;
+    private int spaces;
+    private boolean holding;
+    private final IntBuffer held = new IntBuffer();
+
+    @Override
+    public void push(int symbol) {
+      if (CssTokenizer.isSpace(symbol)) {
+        if (state == SELECTOR_START) {
+          state = SELECTOR;
+        }
+        spaces++;
+        return;
+      }
+
+      if (spaces > 0) {
+        if (symbol == ':' && state == SELECTOR) {
+          holding = true;
+          for (; spaces > 0; spaces--) {
+            held.add(KEPT_SPACE);
+          }
+        } else if (isSpecial(symbol)) {
+          spaces = 0;
+        } else {
+          for (; spaces > 0; spaces--) {
+            output(' ');
+          }
+        }
+      }
+
+      if (symbol == '{') {
+        if (holding) {
+          release(true);
+        }
+        state = BLOCK;
+      } else if (symbol == '}') {
+        if (state == BLOCK || state == NOT_SELECTOR) {
+          state = SELECTOR_START;
+        } else if (state == SELECTOR_START) {
+          state = SELECTOR;
+        }
+      } else if (state == SELECTOR_START) {
+        state = symbol == ':' ? NOT_SELECTOR : SELECTOR;
+      }
+
+      output(symbol);
+    }
+
+    @Override
+    void finish() {
+      if (holding) {
+        release(false);
+      }
+      for (; spaces > 0; spaces--) {
+        emit(' ');
+      }
+      super.finish();
+    }
+
+    private void output(int symbol) {
+      if (holding) {
+        held.add(symbol);
+      } else {
+        emit(symbol);
+      }
+    }
+
+    private void release(boolean keepSpaces) {
+      holding = false;
+      for (int i = 0; i < held.size; i++) {
+        int symbol = held.symbols[i];
+        if (symbol != KEPT_SPACE) {
+          emit(symbol);
+        } else if (keepSpaces) {
+          emit(' ');
+        }
+      }
+      held.clear();
+    }
+
+    private static boolean isSpecial(int symbol) {
+      switch (symbol) {
+        case '!': case '{': case '}': case ';': case ':': case '>':
+        case '+': case '(': case ')': case ']': case ',':
+          return true;
+        default:
+          return false;
+      }
+    }
+
+  }
+
+
+  /**
+   * Retain space for special IE6 cases: ":first-letter{" and alike.
+   */
+  private static final class FirstLetterSpace extends Rewriter {
+
+    @Override
+    boolean canStart(int symbol) {
+      return symbol == ':';
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      int i = matchLiteral(buffer, from, to, ":first-", false);
+      if (i < 0) {
+        return i == NEED_MORE && !eof ? NEED_MORE : 0;
+      }
+      int end = matchLiteral(buffer, i, to, "line", false);
+      if (end == NO_MATCH) {
+        end = matchLiteral(buffer, i, to, "letter", false);
+      }
+      if (end < 0) {
+        return end == NEED_MORE && !eof ? NEED_MORE : 0;
+      }
+      if (end == to) {
+        return eof ? 0 : NEED_MORE;
+      }
+      return buffer[end] == '{' || buffer[end] == ',' ? end + 1 - from : 0;
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      for (int i = from; i < from + length - 1; i++) {
+        emit(buffer[i]);
+      }
+      emit(' ');
+      emit(buffer[from + length - 1]);
+    }
+
+  }
+
+
+  /**
+   * No space after the end of a preserved comment.
+   */
+  private static final class PreservedCommentSpace extends Rewriter {
+
+    @Override
+    boolean canStart(int symbol) {
+      return symbol == '*';
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      int end = matchLiteral(buffer, from, to, "*/ ", false);
+      if (end == NEED_MORE) {
+        return eof ? 0 : NEED_MORE;
+      }
+      return end < 0 ? 0 : end - from;
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      emit('*');
+      emit('/');
+    }
+
+  }
+
+
+  /**
+   * If there is a @charset, then only allow one, and push to the top
+   * of the file. This needs the whole stylesheet, so it is only buffered
+   * when the source mentions @charset at all.
+   */
+  private static final class HoistCharset extends Stage {
+
+    private final boolean enabled;
+    private final IntBuffer buffer = new IntBuffer();
+
+    HoistCharset(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    @Override
+    public void push(int symbol) {
+      if (enabled) {
+        buffer.add(symbol);
+      } else {
+        emit(symbol);
+      }
+    }
+
+    @Override
+    void finish() {
+      if (enabled) {
+        hoist();
+      }
+      super.finish();
+    }
+
+    private void hoist() {
+      int[] css = buffer.symbols;
+      int size = buffer.size;
+
+      // ^(.*)(@charset "[^"]*";) => $2$1
+      int start = -1;
+      int end = -1;
+      for (int i = 0; i < size; i++) {
+        int quote = matchLiteral(css, i, size, "@charset \"", false);
+        if (quote < 0) {
+          continue;
+        }
+        int j = quote;
+        while (j < size && css[j] != '"') {
+          j++;
+        }
+        if (j + 1 < size && css[j + 1] == ';') {
+          start = i;
+          end = j + 2;
+        }
+      }
+      int[] moved = new int[size];
+      if (start >= 0) {
+        System.arraycopy(css, start, moved, 0, end - start);
+        System.arraycopy(css, 0, moved, end - start, start);
+        System.arraycopy(css, end, moved, end, size - end);
+      } else {
+        System.arraycopy(css, 0, moved, 0, size);
+      }
+
+      // ^(\s*@charset [^;]+;\s*)+ => $1
+      int from = 0;
+      int lastStart = -1;
+      int pos = 0;
+      for (;;) {
+        int i = pos;
+        while (i < size && CssTokenizer.isSpace(moved[i])) {
+          i++;
+        }
+        i = matchLiteral(moved, i, size, "@charset ", false);
+        if (i < 0 || i >= size || moved[i] == ';') {
+          break;
+        }
+        while (i < size && moved[i] != ';') {
+          i++;
+        }
+        if (i == size) {
+          break;
+        }
+        i++;
+        while (i < size && CssTokenizer.isSpace(moved[i])) {
+          i++;
+        }
+        lastStart = pos;
+        pos = i;
+      }
+      if (lastStart >= 0) {
+        for (int i = lastStart; i < pos; i++) {
+          emit(moved[i]);
+        }
+        from = pos;
+      }
+
+      for (int i = from; i < size; i++) {
+        emit(moved[i]);
+      }
+      buffer.clear();
+    }
+
+  }
+
+
+  /**
+   * Put the space back in some cases, to support stuff like
+   * @media screen and (-webkit-min-device-pixel-ratio:0){
+   */
+  private static final class MediaAndSpace extends Rewriter {
+
+    // state of \b: is the symbol before the buffer a word character
+    private boolean wordBefore;
+    private boolean letterOrDigitBase;
+    private int highSurrogate;
+
+    @Override
+    boolean canStart(int symbol) {
+      return symbol == 'a' && !wordBefore;
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      int end = matchLiteral(buffer, from, to, "and(", false);
+      if (end == NEED_MORE) {
+        return eof ? 0 : NEED_MORE;
+      }
+      return end < 0 ? 0 : end - from;
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      emit("and (");
+    }
+
+    @Override
+    void emit(int symbol) {
+      super.emit(symbol);
+
+      if (symbol >= ATOM) {
+        // placeholders end with _
+        wordBefore = true;
+        letterOrDigitBase = false;
+        highSurrogate = 0;
+        return;
+      }
+
+      int codePoint = symbol;
+      if (Character.isLowSurrogate((char) symbol) && highSurrogate != 0) {
+        codePoint = Character.toCodePoint((char) highSurrogate, (char) symbol);
+      }
+      highSurrogate = Character.isHighSurrogate((char) symbol) ? symbol : 0;
+
+      boolean letterOrDigit = Character.isLetterOrDigit(codePoint);
+      if (codePoint == '_' || letterOrDigit) {
+        wordBefore = true;
+      } else if (Character.getType(codePoint) == Character.NON_SPACING_MARK) {
+        wordBefore = letterOrDigitBase;
+      } else {
+        wordBefore = false;
+      }
+      if (letterOrDigit) {
+        letterOrDigitBase = true;
+      } else if (
+          Character.getType(codePoint) != Character.NON_SPACING_MARK) {
+        letterOrDigitBase = false;
+      }
+    }
+
+  }
+
+
+  /**
+   * Remove the spaces after the things that should not have spaces
+   * after them.
+   */
+  private static final class RemoveSpaceAfter extends Stage {
+
+    private boolean special;
+
+    @Override
+    public void push(int symbol) {
+      if (special && CssTokenizer.isSpace(symbol)) {
+        return;
+      }
+      switch (symbol) {
+        case '!': case '{': case '}': case ':': case ';': case '>':
+        case '+': case '(': case '[': case ',':
+          special = true;
+          break;
+        default:
+          special = false;
+      }
+      emit(symbol);
+    }
+
+  }
+
+
+  /**
+   * Remove unnecessary semicolons: ;+} => }
+   */
+  private static final class RemoveLastSemicolon extends Stage {
+
+    private int semicolons;
+
+    @Override
+    public void push(int symbol) {
+      if (symbol == ';') {
+        semicolons++;
+        return;
+      }
+      if (symbol != '}') {
+        for (; semicolons > 0; semicolons--) {
+          emit(';');
+        }
+      }
+      semicolons = 0;
+      emit(symbol);
+    }
+
+    @Override
+    void finish() {
+      for (; semicolons > 0; semicolons--) {
+        emit(';');
+      }
+      super.finish();
+    }
+
+  }
+
+
+  /**
+   * Replace 0(px,em,%) with 0.
+   */
+  private static final class ZeroUnits extends Rewriter {
+
+    private static final String[] UNITS =
+        {"px", "em", "%", "in", "cm", "mm", "pc", "pt", "ex"};
+
+    @Override
+    boolean canStart(int symbol) {
+      return symbol == ':' || CssTokenizer.isSpace(symbol);
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      if (from + 1 == to) {
+        return eof ? 0 : NEED_MORE;
+      }
+      if (buffer[from + 1] != '0') {
+        return 0;
+      }
+      for (String unit : UNITS) {
+        int end = matchLiteral(buffer, from + 2, to, unit, false);
+        if (end == NEED_MORE) {
+          return eof ? 0 : NEED_MORE;
+        }
+        if (end >= 0) {
+          return end - from;
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      emit(buffer[from]);
+      emit('0');
+    }
+
+  }
+
+
+  /**
+   * Replace 0 0 0 0; with 0.
+   */
+  private static final class ZeroValues extends Rewriter {
+
+    @Override
+    boolean canStart(int symbol) {
+      return symbol == ':';
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      int i = from + 1;
+      if (i == to) {
+        return eof ? 0 : NEED_MORE;
+      }
+      if (buffer[i++] != '0') {
+        return 0;
+      }
+      int zeros = 0;
+      while (zeros < 3) {
+        if (i < to && buffer[i] != ' ') {
+          break;
+        }
+        if (i + 1 >= to) {
+          return eof ? 0 : NEED_MORE;
+        }
+        if (buffer[i + 1] != '0') {
+          break;
+        }
+        i += 2;
+        zeros++;
+      }
+      if (zeros == 0) {
+        return 0;
+      }
+      if (i == to) {
+        return eof ? 0 : NEED_MORE;
+      }
+      return buffer[i] == ';' || buffer[i] == '}' ? i + 1 - from : 0;
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      emit(':');
+      emit('0');
+      emit(buffer[from + length - 1]);
+    }
+
+  }
+
+
+  /**
+   * Replace background-position:0; with background-position:0 0;
+   * same for transform-origin.
+   */
+  private static final class ZeroPositions extends Rewriter {
+
+    private static final String[] PROPERTIES = {
+        "background-position:0",
+        "transform-origin:0",
+        "webkit-transform-origin:0",
+        "moz-transform-origin:0",
+        "o-transform-origin:0",
+        "ms-transform-origin:0"
+    };
+
+    @Override
+    boolean canStart(int symbol) {
+      switch (CssTokenizer.toLowerAscii(symbol)) {
+        case 'b': case 't': case 'w': case 'm': case 'o':
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      return matchPropertyValue(PROPERTIES, buffer, from, to, eof);
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      emitLowerCase(buffer, from, from + length - 3);
+      emit(":0 0");
+      emit(buffer[from + length - 1]);
+    }
+
+  }
+
+
+  /**
+   * Replace 0.6 to .6, but only when preceded by : or a white-space.
+   */
+  private static final class LeadingZeros extends Rewriter {
+
+    @Override
+    boolean canStart(int symbol) {
+      return symbol == ':' || CssTokenizer.isSpace(symbol);
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      int i = from + 1;
+      while (i < to && buffer[i] == '0') {
+        i++;
+      }
+      if (i == to) {
+        return eof ? 0 : NEED_MORE;
+      }
+      if (i == from + 1 || buffer[i] != '.') {
+        return 0;
+      }
+      int digits = ++i;
+      while (i < to && isDigit(buffer[i])) {
+        i++;
+      }
+      if (i == to && !eof) {
+        return NEED_MORE;
+      }
+      return i > digits ? i - from : 0;
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      emit(buffer[from]);
+      int i = from + 1;
+      while (buffer[i] == '0') {
+        i++;
+      }
+      for (; i < from + length; i++) {
+        emit(buffer[i]);
+      }
+    }
+
+  }
+
+
+  /**
+   * Shorten colors from rgb(51,102,153) to #336699.
+   */
+  private static final class RgbColors extends Rewriter {
+
+    @Override
+    boolean canStart(int symbol) {
+      return symbol == 'r';
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      int i = matchLiteral(buffer, from, to, "rgb", false);
+      if (i < 0) {
+        return i == NEED_MORE && !eof ? NEED_MORE : 0;
+      }
+      while (i < to && CssTokenizer.isSpace(buffer[i])) {
+        i++;
+      }
+      if (i == to) {
+        return eof ? 0 : NEED_MORE;
+      }
+      if (buffer[i++] != '(') {
+        return 0;
+      }
+      int contentStart = i;
+      while (i < to && (isDigit(buffer[i]) || buffer[i] == ',' ||
+          CssTokenizer.isSpace(buffer[i]))) {
+        i++;
+      }
+      if (i == to) {
+        return eof ? 0 : NEED_MORE;
+      }
+      if (buffer[i] != ')' || i == contentStart) {
+        return 0;
+      }
+      return i + 1 - from;
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      int i = from + 3;
+      while (buffer[i] != '(') {
+        i++;
+      }
+      int start = i + 1;
+      int end = from + length - 1;
+
+      // \(\s*([0-9,\s]+)\s*\) captures at least one character
+      while (start < end - 1 && CssTokenizer.isSpace(buffer[start])) {
+        start++;
+      }
+      StringBuilder group = new StringBuilder(end - start);
+      for (i = start; i < end; i++) {
+        group.append((char) buffer[i]);
+      }
+
+      String[] rgbcolors = group.toString().split(",");
+      StringBuilder hexcolor = new StringBuilder("#");
+      for (i = 0; i < rgbcolors.length; i++) {
+        int val = Integer.parseInt(rgbcolors[i]);
+        if (val < 16) {
+          hexcolor.append("0");
+        }
+        hexcolor.append(Integer.toHexString(val));
+      }
+      emit(hexcolor.toString());
+    }
+
+  }
+
+
+  /**
+   * Shorten colors from #AABBCC to #ABC, only inside { } (a } has to come
+   * before the next {), and not in filters like chroma(color="#FFFFFF").
+   *
+   * Symbols are held back from the first color waiting for its } or {.
+   */
+  private static final class HexColors extends Stage {
+
+    private static final int NONE = 0;
+    private static final int EQUALS = 1;
+    private static final int QUOTE = 2;
+
+    private final IntBuffer buffer = new IntBuffer();
+
+    // offsets of colors in the buffer waiting for a brace
+    private final IntBuffer pending = new IntBuffer();
+    private final IntBuffer matched = new IntBuffer();
+
+    // offset of the color whose digits are being read
+    private int color = -1;
+    private int filter = NONE;
+
+    @Override
+    public void push(int symbol) {
+      buffer.add(symbol);
+      int offset = buffer.size - 1;
+
+      if (color >= 0) {
+        int digits = offset - color - 1;
+        if (digits < 6) {
+          if (!isHexDigit(symbol)) {
+            color = -1;
+          }
+        } else {
+          if (!isHexDigit(symbol) && symbol != '{') {
+            pending.add(color);
+          }
+          color = -1;
+        }
+      }
+
+      if (symbol == '#' && filter == NONE) {
+        color = offset;
+      }
+
+      if (symbol == '=') {
+        filter = EQUALS;
+      } else if (filter == EQUALS && CssTokenizer.isSpace(symbol)) {
+        filter = EQUALS;
+      } else if (filter == EQUALS && (symbol == '"' || symbol == '\'')) {
+        filter = QUOTE;
+      } else {
+        filter = NONE;
+      }
+
+      if (symbol == '{' || symbol == '}') {
+        if (symbol == '}') {
+          for (int i = 0; i < pending.size; i++) {
+            matched.add(pending.symbols[i]);
+          }
+        }
+        pending.clear();
+      }
+
+      if (color < 0 && pending.size == 0) {
+        flush();
+      }
+    }
+
+    @Override
+    void finish() {
+      flush();
+      super.finish();
+    }
+
+    private void flush() {
+      int[] css = buffer.symbols;
+      int from = 0;
+      for (int m = 0; m < matched.size; m++) {
+        int start = matched.symbols[m];
+        for (; from < start; from++) {
+          emit(css[from]);
+        }
+        emit('#');
+        if (equalsIgnoreCase(css[start + 1], css[start + 2]) &&
+            equalsIgnoreCase(css[start + 3], css[start + 4]) &&
+            equalsIgnoreCase(css[start + 5], css[start + 6])) {
+          emit(CssTokenizer.toLowerAscii(css[start + 2]));
+          emit(CssTokenizer.toLowerAscii(css[start + 4]));
+          emit(CssTokenizer.toLowerAscii(css[start + 6]));
+        } else {
+          for (int i = start + 1; i <= start + 6; i++) {
+            emit(CssTokenizer.toLowerAscii(css[i]));
+          }
+        }
+        from = start + 7;
+      }
+      for (; from < buffer.size; from++) {
+        emit(css[from]);
+      }
+      buffer.clear();
+      matched.clear();
+      if (color >= 0) {
+        // there is no room for a color at the end of the input
+        color = -1;
+      }
+    }
+
+    private static boolean equalsIgnoreCase(int a, int b) {
+      return CssTokenizer.toLowerAscii(a) == CssTokenizer.toLowerAscii(b);
+    }
+
+  }
+
+
+  /**
+   * border: none -> border:0
+   */
+  private static final class NoneValues extends Rewriter {
+
+    private static final String[] PROPERTIES = {
+        "border:none",
+        "border-top:none",
+        "border-right:none",
+        "border-bottom:none",
+        "outline:none",
+        "background:none"
+    };
+
+    @Override
+    boolean canStart(int symbol) {
+      int c = CssTokenizer.toLowerAscii(symbol);
+      return c == 'b' || c == 'o';
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      return matchPropertyValue(PROPERTIES, buffer, from, to, eof);
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      emitLowerCase(buffer, from, from + length - 6);
+      emit(":0");
+      emit(buffer[from + length - 1]);
+    }
+
+  }
+
+
+  /**
+   * Shorter opacity IE filter.
+   */
+  private static final class AlphaOpacity extends Rewriter {
+
+    @Override
+    boolean canStart(int symbol) {
+      return CssTokenizer.toLowerAscii(symbol) == 'p';
+    }
+
+    @Override
+    int match(int[] buffer, int from, int to, boolean eof) {
+      String progid = CssTokenizer.PROGID;
+      for (int k = 0; k < progid.length(); k++) {
+        if (from + k == to) {
+          return eof ? 0 : NEED_MORE;
+        }
+        if (!CssTokenizer.matchesProgidChar(k, buffer[from + k])) {
+          return 0;
+        }
+      }
+      return progid.length();
+    }
+
+    @Override
+    void replace(int[] buffer, int from, int length) {
+      emit(CssTokenizer.ALPHA_OPACITY);
+    }
+
+  }
+
+
+  /**
+   * Remove empty rules: [^\}\{/;]+\{\} => ""
+   *
+   * Text since the last }, {, / or ; is held back until it is known
+   * not to be followed by {}.
+   */
+  private static final class EmptyRules extends Stage {
+
+    private final IntBuffer run = new IntBuffer();
+    private boolean brace;
+
+    @Override
+    public void push(int symbol) {
+      if (brace) {
+        brace = false;
+        if (symbol == '}' && run.size > 0) {
+          run.clear();
+          return;
+        }
+        flushRun();
+        emit('{');
+      }
+
+      switch (symbol) {
+        case '{':
+          brace = true;
+          break;
+        case '}': case '/': case ';':
+          flushRun();
+          emit(symbol);
+          break;
+        default:
+          run.add(symbol);
+      }
+    }
+
+    @Override
+    void finish() {
+      flushRun();
+      if (brace) {
+        brace = false;
+        emit('{');
+      }
+      super.finish();
+    }
+
+    private void flushRun() {
+      for (int i = 0; i < run.size; i++) {
+        emit(run.symbols[i]);
+      }
+      run.clear();
+    }
+
+  }
+
+
+  /**
+   * Split long lines after a }, measuring them the way the regex engine
+   * does: on the working string, where every preserved token is still
+   * a placeholder.
+   */
+  private static final class LineBreaks extends Stage {
+
+    private final CssTokenizer tokenizer;
+    private final int linebreakpos;
+    private final IntBuffer buffer = new IntBuffer();
+
+    LineBreaks(CssTokenizer tokenizer, int linebreakpos) {
+      this.tokenizer = tokenizer;
+      this.linebreakpos = linebreakpos;
+    }
+
+    @Override
+    public void push(int symbol) {
+      if (linebreakpos < 0) {
+        emit(symbol);
+      } else {
+        // placeholder lengths are known once all tokens are counted
+        buffer.add(symbol);
+      }
+    }
+
+    @Override
+    void finish() {
+      int i = 0;
+      int linestartpos = 0;
+      for (int k = 0; k < buffer.size; k++) {
+        int symbol = buffer.symbols[k];
+        emit(symbol);
+        i += symbol >= ATOM ? tokenizer.getPlaceholderLength(symbol) : 1;
+        if (symbol == '}' && i - linestartpos > linebreakpos) {
+          emit('\n');
+          linestartpos = i;
+          i++;
+        }
+      }
+      buffer.clear();
+      super.finish();
+    }
+
+  }
+
+
+  /**
+   * Replace multiple semi-colons in a row by a single one.
+   */
+  private static final class Semicolons extends Stage {
+
+    private boolean semicolon;
+
+    @Override
+    public void push(int symbol) {
+      if (symbol == ';' && semicolon) {
+        return;
+      }
+      semicolon = symbol == ';';
+      emit(symbol);
+    }
+
+  }
+
+
+  /**
+   * Restores preserved tokens and trims the result.
+   */
+  private static final class Result extends Stage {
+
+    private final CssTokenizer tokenizer;
+    private final StringBuilder css;
+
+    Result(CssTokenizer tokenizer, int capacity) {
+      this.tokenizer = tokenizer;
+      this.css = new StringBuilder(capacity / 2);
+    }
+
+    @Override
+    public void push(int symbol) {
+      if (symbol >= ATOM) {
+        css.append(tokenizer.getText(symbol));
+      } else if (symbol > ' ' || css.length() > 0) {
+        css.append((char) symbol);
+      }
+    }
+
+    @Override
+    void finish() {
+      int end = css.length();
+      while (end > 0 && css.charAt(end - 1) <= ' ') {
+        end--;
+      }
+      css.setLength(end);
+    }
+
+    @Override
+    public String toString() {
+      return css.toString();
+    }
+
+  }
+
+
+
+  private static final int NO_MATCH = -2;
+
+  /**
+   * @return  Offset right after the literal matched at buffer[from],
+   *          NO_MATCH or NEED_MORE if the buffer ends before a mismatch.
+   */
+  private static int matchLiteral(
+      int[] buffer, int from, int to, String literal, boolean ignoreCase) {
+
+    for (int k = 0; k < literal.length(); k++) {
+      if (from + k >= to) {
+        return NEED_MORE;
+      }
+      int symbol = buffer[from + k];
+      int c = literal.charAt(k);
+      if (ignoreCase) {
+        symbol = CssTokenizer.toLowerAscii(symbol);
+        c = CssTokenizer.toLowerAscii(c);
+      }
+      if (symbol != c) {
+        return NO_MATCH;
+      }
+    }
+    return from + literal.length();
+  }
+
+  /**
+   * Matches (?i)(property1:value|property2:value|...)(;|}) at buffer[from].
+   */
+  private static int matchPropertyValue(
+      String[] properties, int[] buffer, int from, int to, boolean eof) {
+
+    for (String property : properties) {
+      int end = matchLiteral(buffer, from, to, property, true);
+      if (end >= 0) {
+        if (end == to) {
+          end = NEED_MORE;
+        } else if (buffer[end] == ';' || buffer[end] == '}') {
+          return end + 1 - from;
+        } else {
+          end = NO_MATCH;
+        }
+      }
+      if (end == NEED_MORE) {
+        return eof ? 0 : NEED_MORE;
+      }
+    }
+    return 0;
+  }
+
+  private static boolean isDigit(int symbol) {
+    return symbol >= '0' && symbol <= '9';
+  }
+
+  private static boolean isHexDigit(int symbol) {
+    return isDigit(symbol) ||
+        (symbol >= 'a' && symbol <= 'f') || (symbol >= 'A' && symbol <= 'F');
+  }
+
+
+
+  /**
+   * Growable array of symbols.
+   */
+  private static final class IntBuffer {
+
+    int[] symbols = new int[16];
+    int size;
+
+    void add(int symbol) {
+      if (size == symbols.length) {
+        int[] grown = new int[size * 2];
+        System.arraycopy(symbols, 0, grown, 0, size);
+        symbols = grown;
+      }
+      symbols[size++] = symbol;
+    }
+
+    void removeFirst(int count) {
+      System.arraycopy(symbols, count, symbols, 0, size - count);
+      size -= count;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+  }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minifies css read from a stream rule by rule, so memory use is bounded by
+ * the biggest top-level rule rather than by the whole stylesheet.
+ *
+ * Output is the same as of the engine for the whole css, except for line
+ * breaking: columns are counted from the start of each rule and a line is
+ * also broken between rules once it is longer than linebreakpos.
+ *
+ * The engine hoists the last @charset rule to the top, so output is held
+ * back while it's not known which @charset rule goes first: unless css
+ * starts with a single @charset rule, and from any later @charset rule on.
+ * Beyond SPOOL_LIMIT chars held back output goes to a temporary file.
+ *
+ * Input the single-pass tokenizer can not handle (see
+ * {@link CssTokenizer.UnsupportedInputException}) is minified in one piece
+ * from the point where it starts.
+ */
+public class StreamingCssCompressor {
+
+  private static final int READ_SIZE = 8192;
+
+  private static final int SPOOL_LIMIT = 1024 * 1024;
+
+  private final CssEngine engine;
+
+
+  public StreamingCssCompressor(CssEngine engine) {
+    this.engine = engine;
+  }
+
+
+  public void compress(Reader in, Writer out, int linebreakpos)
+      throws IOException {
+
+    Output output = new Output(out, linebreakpos);
+    try {
+      compress(in, output);
+      output.finish();
+    } finally {
+      output.close();
+    }
+  }
+
+
+  private void compress(Reader in, Output output) throws IOException {
+    StringBuilder buffer = new StringBuilder();
+    char[] block = new char[READ_SIZE];
+    boolean eof = false;
+
+    while (!eof) {
+      // read at least as much as is buffered, so that a rule spanning many
+      // reads is not split over and over again from its start
+      int wanted = Math.max(READ_SIZE, buffer.length());
+      int read = 0;
+      while (read < wanted) {
+        int n = in.read(block, 0, Math.min(block.length, wanted - read));
+        if (n == -1) {
+          eof = true;
+          break;
+        }
+        buffer.append(block, 0, n);
+        read += n;
+      }
+
+      CssChunker chunker = new CssChunker(buffer);
+      chunker.split();
+
+      int last = chunker.getChunkCount() - 1;
+      if (!eof && last > 0 &&
+          chunker.getChunkStart(last) >= buffer.length() - 1) {
+        // the last character might turn out to start a comment
+        last--;
+      }
+      for (int i = 0; i < last; i++) {
+        output.write(
+            buffer.subSequence(
+                chunker.getChunkStart(i), chunker.getChunkEnd(i)),
+            chunker.isCharset(i));
+      }
+      if (eof) {
+        output.write(
+            buffer.subSequence(chunker.getChunkStart(last), buffer.length()),
+            chunker.isCharset(last));
+      } else {
+        buffer.delete(0, chunker.getChunkStart(last));
+      }
+    }
+  }
+
+
+  /**
+   * Puts @charset rules where the engine would for the whole css. It moves
+   * the last @charset rule to the top, then keeps only the last of
+   * @charset rules leading the css. Other @charset rules stay in place.
+   */
+  private final class Output {
+
+    private final Writer out;
+    private final int linebreakpos;
+    private final StringWriter chunk = new StringWriter();
+
+    // @charset rules before any other output: their count, the last two
+    private int leadingCount;
+    private String leading;
+    private String beforeLeading;
+
+    // the last @charset rule after other output started
+    private String lastCharset;
+
+    private boolean started;
+    private boolean headWritten;
+
+    // output held back, null if there is none
+    private Spool spool;
+    // index of lastCharset in spool, -1 if it's not there
+    private int lastCharsetPiece = -1;
+
+    private int column;
+    private char lastChar;
+
+    Output(Writer out, int linebreakpos) {
+      this.out = out;
+      this.linebreakpos = linebreakpos;
+    }
+
+    void write(CharSequence css, boolean isCharset) throws IOException {
+      chunk.getBuffer().setLength(0);
+      engine.compress(css, chunk, linebreakpos);
+      String minified = chunk.toString();
+      if (minified.length() == 0) {
+        return;
+      }
+
+      if (!started) {
+        if (isCharset) {
+          beforeLeading = leading;
+          leading = minified;
+          leadingCount++;
+          return;
+        }
+
+        started = true;
+        if (leadingCount == 1) {
+          // goes first whether a @charset rule follows or not
+          append(leading);
+          headWritten = true;
+        } else {
+          spool = new Spool();
+        }
+      }
+
+      if (isCharset) {
+        if (headWritten && spool != null) {
+          // the held back rule is not the last one, it stays in place
+          spool.replay(this, -1);
+          spool = null;
+        }
+        if (spool == null) {
+          spool = new Spool();
+        }
+        lastCharset = minified;
+        lastCharsetPiece = spool.size();
+      }
+
+      if (spool != null) {
+        spool.add(minified);
+      } else {
+        append(minified);
+      }
+    }
+
+    void finish() throws IOException {
+      if (!started) {
+        // nothing but @charset rules
+        if (leadingCount > 0) {
+          append(leadingCount > 1 ? beforeLeading : leading);
+        }
+        return;
+      }
+
+      if (!headWritten) {
+        String head;
+        if (lastCharset != null) {
+          head = leadingCount > 0 ? leading : lastCharset;
+        } else {
+          head = leadingCount > 1 ? beforeLeading : null;
+        }
+        if (head != null) {
+          append(head);
+        }
+      }
+
+      if (spool != null) {
+        spool.replay(this, lastCharsetPiece);
+        spool = null;
+      }
+    }
+
+    void close() {
+      if (spool != null) {
+        spool.delete();
+      }
+    }
+
+    void append(String minified) throws IOException {
+      if (linebreakpos >= 0 && lastChar == '}' && column > linebreakpos) {
+        out.write('\n');
+        column = 0;
+      }
+      out.write(minified);
+
+      int lineStart = minified.lastIndexOf('\n') + 1;
+      if (lineStart > 0) {
+        column = minified.length() - lineStart;
+      } else {
+        column += minified.length();
+      }
+      lastChar = minified.charAt(minified.length() - 1);
+    }
+  }
+
+
+  /**
+   * Minified pieces held back, in memory up to SPOOL_LIMIT chars and in
+   * a temporary file after that.
+   */
+  private static final class Spool {
+
+    private final List<String> pieces = new ArrayList<String>();
+    private long chars;
+    private int count;
+
+    private File file;
+    private DataOutputStream fileOut;
+
+    int size() {
+      return count;
+    }
+
+    void add(String piece) throws IOException {
+      count++;
+      if (fileOut != null) {
+        writePiece(piece);
+        return;
+      }
+
+      pieces.add(piece);
+      chars += piece.length();
+      if (chars > SPOOL_LIMIT) {
+        file = File.createTempFile("css-compressor-", ".spool");
+        fileOut = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file)));
+        for (String held : pieces) {
+          writePiece(held);
+        }
+        pieces.clear();
+      }
+    }
+
+    /**
+     * Appends pieces to output in order, except the one at index skip,
+     * and deletes the temporary file.
+     */
+    void replay(Output output, int skip) throws IOException {
+      if (fileOut == null) {
+        for (int i = 0; i < pieces.size(); i++) {
+          if (i != skip) {
+            output.append(pieces.get(i));
+          }
+        }
+        return;
+      }
+
+      fileOut.close();
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(file)));
+      try {
+        for (int i = 0; i < count; i++) {
+          char[] piece = new char[in.readInt()];
+          for (int j = 0; j < piece.length; j++) {
+            piece[j] = in.readChar();
+          }
+          if (i != skip) {
+            output.append(new String(piece));
+          }
+        }
+      } finally {
+        in.close();
+        delete();
+      }
+    }
+
+    void delete() {
+      if (file == null) {
+        return;
+      }
+
+      try {
+        fileOut.close();
+      } catch (IOException e) {
+        // the file is deleted anyway
+      }
+      file.delete();
+      file = null;
+    }
+
+    private void writePiece(String piece) throws IOException {
+      // chars as they are, no charset can mangle them
+      fileOut.writeInt(piece.length());
+      fileOut.writeChars(piece);
+    }
+  }
+
+}
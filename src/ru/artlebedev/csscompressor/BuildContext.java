@@ -0,0 +1,68 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import com.yahoo.platform.yui.compressor.CssEngine;
+import com.yahoo.platform.yui.compressor.ParallelCssEngine;
+import com.yahoo.platform.yui.compressor.RegexCssEngine;
+import com.yahoo.platform.yui.compressor.SinglePassCssEngine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * What compressors of several configs built in one process share: files
+ * read during builds (configs of one repository import the same files)
+ * and engines, which are stateless.
+ */
+class BuildContext {
+
+  private final CssFileCache files = new CssFileCache();
+
+  // "engine parallel" => engine
+  private final Map<String, CssEngine> engines =
+      new HashMap<String, CssEngine>();
+
+
+  public CssFileCache getFiles() {
+    return files;
+  }
+
+
+  public synchronized CssEngine getEngine(
+      Config.Engine engine, boolean parallel) {
+
+    String key = engine.getName() + " " + parallel;
+
+    CssEngine result = engines.get(key);
+    if (result == null) {
+      result = createEngine(engine, parallel);
+      engines.put(key, result);
+    }
+
+    return result;
+  }
+
+
+  private static CssEngine createEngine(
+      Config.Engine engine, boolean parallel) {
+
+    CssEngine result;
+    switch (engine) {
+      case SINGLE_PASS:
+        result = new SinglePassCssEngine();
+        break;
+
+      default:
+        result = new RegexCssEngine();
+    }
+
+    return parallel ? new ParallelCssEngine(result) : result;
+  }
+
+}
@@ -0,0 +1,197 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * What every module was built from last time: a hash of the settings
+ * affecting its output, content hashes of all files read while building it
+ * (the module inputs with their transitive imports) and a hash of the output.
+ * A module none of these changed for does not need to be built again.
+ *
+ * Every module has its own manifest file in the cache catalog, named by
+ * the config file and the module output, so modules built concurrently
+ * never write the same file and configs may share the catalog.
+ */
+class BuildManifest {
+
+  /**
+   * Goes to the settings hash of every module.
+   * Change it whenever output of the same input changes.
+   */
+  static final String COMPRESSOR_VERSION = "1";
+
+  private static final String SETTINGS_KEY = "settings";
+
+  private static final String OUTPUT_KEY = "output";
+
+  private static final String FILE_KEY_PREFIX = "file.";
+
+
+  private final File catalog;
+
+  private final String configPath;
+
+  // file hashes by path, mtime and size, shared imports are hashed once
+  // a build
+  private final ConcurrentMap<String, String> fileHashes =
+      new ConcurrentHashMap<String, String>();
+
+
+  /**
+   * @param configPath  Canonical path of the config file.
+   */
+  BuildManifest(File catalog, String configPath) {
+    this.catalog = new File(catalog, "manifest");
+    this.configPath = configPath;
+  }
+
+
+  /**
+   * Forgets file hashes of the previous build, so a long-lived compressor
+   * doesn't keep hashes of every version of every file.
+   */
+  public void startBuild() {
+    fileHashes.clear();
+  }
+
+
+  /**
+   * @return  Canonical paths of files the module was built from if it was
+   *          last built with the same settings from the same files and its
+   *          output file was not changed since, null otherwise.
+   */
+  public List<String> getFilesIfUpToDate(
+      Config.Module module, String settingsHash) throws IOException {
+
+    Properties manifest = load(module);
+    if (manifest == null ||
+        !settingsHash.equals(manifest.getProperty(SETTINGS_KEY))) {
+      return null;
+    }
+
+    File output = new File(module.outputPath);
+    if (!output.isFile() ||
+        !Utils.hash(Utils.readBytes(output.getPath())).equals(
+            manifest.getProperty(OUTPUT_KEY))) {
+      return null;
+    }
+
+    List<String> files = new ArrayList<String>();
+    for (int i = 0; ; i++) {
+      String entry = manifest.getProperty(FILE_KEY_PREFIX + i);
+      if (entry == null) {
+        return files;
+      }
+
+      // hash and path are separated by the first space
+      int split = entry.indexOf(' ');
+      if (split < 0) {
+        return null;
+      }
+
+      String path = entry.substring(split + 1);
+      if (!new File(path).isFile() ||
+          !entry.substring(0, split).equals(getFileHash(path))) {
+        return null;
+      }
+      files.add(path);
+    }
+  }
+
+
+  /**
+   * Records a fresh build of the module.
+   *
+   * @param files  Canonical paths of all files read to build the module.
+   */
+  public void update(
+      Config.Module module, String settingsHash, Collection<String> files,
+      byte[] output) throws IOException {
+
+    Properties manifest = new Properties();
+    manifest.setProperty(SETTINGS_KEY, settingsHash);
+    manifest.setProperty(OUTPUT_KEY, Utils.hash(output));
+
+    int i = 0;
+    for (String path : files) {
+      manifest.setProperty(
+          FILE_KEY_PREFIX + i++, getFileHash(path) + " " + path);
+    }
+
+    catalog.mkdirs();
+    File file = getManifestFile(module);
+    File tmpFile = new File(file.getPath() + ".tmp");
+
+    OutputStream stream = new FileOutputStream(tmpFile);
+    try {
+      manifest.store(stream, "Module " + module.name);
+    } finally {
+      stream.close();
+    }
+
+    if (!tmpFile.renameTo(file)) {
+      file.delete();
+      if (!tmpFile.renameTo(file)) {
+        throw new IOException("Unable to write " + file.getPath());
+      }
+    }
+  }
+
+
+  private Properties load(Config.Module module) throws IOException {
+    File file = getManifestFile(module);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    Properties manifest = new Properties();
+    InputStream stream = new FileInputStream(file);
+    try {
+      manifest.load(stream);
+    } finally {
+      stream.close();
+    }
+
+    return manifest;
+  }
+
+  private File getManifestFile(Config.Module module) throws IOException {
+    String key =
+        configPath + "\0" + new File(module.outputPath).getCanonicalPath();
+
+    return new File(
+        catalog, Utils.hash(Utils.getBytes(key, "UTF-8")) + ".properties");
+  }
+
+  private String getFileHash(String path) throws IOException {
+    File file = new File(path);
+    String key = path + "\n" + file.lastModified() + "\n" + file.length();
+
+    String hash = fileHashes.get(key);
+    if (hash == null) {
+      hash = Utils.hash(Utils.readBytes(path));
+      fileHashes.put(key, hash);
+    }
+
+    return hash;
+  }
+
+}
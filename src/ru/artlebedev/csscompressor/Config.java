@@ -6,10 +6,19 @@
 
 package ru.artlebedev.csscompressor;
 
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 
-class Config {
+/**
+ * Settings of a build. Read from a config file by {@link ConfigBuilder},
+ * or made with {@link Builder} when the compressor is embedded.
+ */
+public class Config {
 
   public static final String OUTPUT_WRAPPER_MARKER = "%output%";
 
@@ -28,6 +37,36 @@ class Config {
 
   private boolean quiet;
 
+  private Engine engine;
+
+  private boolean parallel;
+
+  private int workers;
+
+  private boolean incremental;
+
+  private String cacheDir;
+
+  private String outputCacheDir;
+
+  private long outputCacheSize;
+
+  private boolean fragments;
+
+  private int preprocessWorkers;
+
+  private long preprocessTimeout;
+
+  private boolean preprocessCache;
+
+  private List<String> preprocessDeps;
+
+  private String preprocessDepfile;
+
+  private String preprocessWorkerCommand;
+
+  private String configPath;
+
   
   Config(
       String rootPath,
@@ -36,7 +75,22 @@ class Config {
       List<Module> modules,
       List<Replace> replaces,
       String preprocessCommand,
-      boolean quiet){
+      boolean quiet,
+      Engine engine,
+      boolean parallel,
+      int workers,
+      boolean incremental,
+      String cacheDir,
+      String outputCacheDir,
+      long outputCacheSize,
+      boolean fragments,
+      int preprocessWorkers,
+      long preprocessTimeout,
+      boolean preprocessCache,
+      List<String> preprocessDeps,
+      String preprocessDepfile,
+      String preprocessWorkerCommand,
+      String configPath){
 
     this.rootPath = rootPath;
     this.charset = charset;
@@ -45,6 +99,21 @@ class Config {
     this.replaces = replaces;
     this.preprocessCommand = preprocessCommand;
     this.quiet = quiet;
+    this.engine = engine;
+    this.parallel = parallel;
+    this.workers = workers;
+    this.incremental = incremental;
+    this.cacheDir = cacheDir;
+    this.outputCacheDir = outputCacheDir;
+    this.outputCacheSize = outputCacheSize;
+    this.fragments = fragments;
+    this.preprocessWorkers = preprocessWorkers;
+    this.preprocessTimeout = preprocessTimeout;
+    this.preprocessCache = preprocessCache;
+    this.preprocessDeps = preprocessDeps;
+    this.preprocessDepfile = preprocessDepfile;
+    this.preprocessWorkerCommand = preprocessWorkerCommand;
+    this.configPath = configPath;
   }
 
   public String getRootPath() {
@@ -75,8 +144,89 @@ class Config {
     return quiet;
   }
 
+  public Engine getEngine() {
+    return engine;
+  }
+
+  public boolean isParallel() {
+    return parallel;
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public String getCacheDir() {
+    return cacheDir;
+  }
+
+  public String getOutputCacheDir() {
+    return outputCacheDir;
+  }
+
+  /**
+   * @return  Size limit of output cache in bytes.
+   */
+  public long getOutputCacheSize() {
+    return outputCacheSize;
+  }
+
+  public boolean isFragments() {
+    return fragments;
+  }
+
+  public int getPreprocessWorkers() {
+    return preprocessWorkers;
+  }
+
+  /**
+   * @return  Preprocess command timeout in milliseconds.
+   */
+  public long getPreprocessTimeout() {
+    return preprocessTimeout;
+  }
 
-  final static class Module {
+  public boolean isPreprocessCache() {
+    return preprocessCache;
+  }
+
+  /**
+   * @return  Globs of files preprocess command reads, relative to root.
+   */
+  public List<String> getPreprocessDeps() {
+    return preprocessDeps;
+  }
+
+  /**
+   * @return  Depfile path written by preprocess command, %s is an input
+   *          path. Null if there is none.
+   */
+  public String getPreprocessDepfile() {
+    return preprocessDepfile;
+  }
+
+  /**
+   * @return  Command starting a persistent preprocessor, null if there is
+   *          none.
+   */
+  public String getPreprocessWorkerCommand() {
+    return preprocessWorkerCommand;
+  }
+
+  /**
+   * @return  Canonical path of the config file, null for configs made
+   *          with {@link Builder}.
+   */
+  public String getConfigPath() {
+    return configPath;
+  }
+
+
+  public final static class Module {
 
     final String name;
     final List<String> inputs;
@@ -88,6 +238,25 @@ class Config {
       this.outputPath = outputPath;
     }
 
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return  Paths of input files, resolved against root.
+     */
+    public List<String> getInputs() {
+      return Collections.unmodifiableList(inputs);
+    }
+
+    /**
+     * @return  null for modules of configs made with {@link Builder}, they
+     *          are not written anywhere.
+     */
+    public String getOutputPath() {
+      return outputPath;
+    }
+
   }
 
 
@@ -103,4 +272,291 @@ class Config {
 
   }
 
+
+  static enum Engine {
+
+    /**
+     * Original YUI Compressor, a sequence of regex replaces over whole css.
+     */
+    REGEX("regex"),
+
+    /**
+     * Tokenizer feeding a chain of streaming passes, produces the same
+     * output as REGEX in a single pass over css.
+     */
+    SINGLE_PASS("single-pass");
+
+    private final String name;
+
+    Engine(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    static Engine forName(String name) {
+      for (Engine engine : values()) {
+        if (engine.name.equals(name)) {
+          return engine;
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * @throws IllegalArgumentException  If there is no engine named so.
+     */
+    static Engine parse(String name) {
+      Engine engine = forName(name);
+      if (engine == null) {
+        StringBuilder allowed = new StringBuilder();
+        for (Engine item : values()) {
+          if (allowed.length() > 0) {
+            allowed.append(", ");
+          }
+          allowed.append('"').append(item.getName()).append('"');
+        }
+
+        throw new IllegalArgumentException(
+            String.format(
+                "Option '%s' must be one of %s. Found: %s",
+                ConfigOption.ENGINE.getName(), allowed, name));
+      }
+
+      return engine;
+    }
+
+  }
+
+
+  /**
+   * Makes configs without a config file, for {@link EmbeddedCssCompressor}.
+   * Options not set have the same defaults as in a config file, relative
+   * paths are resolved against the working directory. Options a build
+   * in memory doesn't need (outputs, incremental builds, workers) are
+   * not there.
+   */
+  public static final class Builder {
+
+    private String rootPath = ".";
+
+    private String charset = ConfigOption.CHARSET.getDefaultValue();
+
+    private String outputWrapper;
+
+    // names and input paths of modules as given, in order of adding
+    private final List<String> moduleNames = new ArrayList<String>();
+    private final List<List<String>> moduleInputs =
+        new ArrayList<List<String>>();
+
+    private final List<Replace> replaces = new ArrayList<Replace>();
+
+    private String preprocessCommand;
+
+    private String engine = ConfigOption.ENGINE.getDefaultValue();
+
+    private boolean parallel =
+        Boolean.parseBoolean(ConfigOption.PARALLEL.getDefaultValue());
+
+    private String outputCacheDir;
+
+    private long outputCacheSize = (long) (
+        Double.parseDouble(ConfigOption.OUTPUT_CACHE_SIZE.getDefaultValue()) *
+        1024 * 1024);
+
+    private boolean fragments =
+        Boolean.parseBoolean(ConfigOption.FRAGMENTS.getDefaultValue());
+
+    private int preprocessWorkers =
+        Integer.parseInt(ConfigOption.PREPROCESS_WORKERS.getDefaultValue());
+
+    private long preprocessTimeout = (long) (
+        Double.parseDouble(ConfigOption.PREPROCESS_TIMEOUT.getDefaultValue()) *
+        1000);
+
+
+    /**
+     * @param rootPath  Catalog module inputs are relative to.
+     */
+    public Builder setRoot(String rootPath) {
+      this.rootPath = rootPath;
+      return this;
+    }
+
+    public Builder setCharset(String charset) {
+      this.charset = charset;
+      return this;
+    }
+
+    /**
+     * @param outputWrapper  Must contain {@link #OUTPUT_WRAPPER_MARKER}.
+     */
+    public Builder setOutputWrapper(String outputWrapper) {
+      this.outputWrapper = outputWrapper;
+      return this;
+    }
+
+    /**
+     * @param inputs  Paths relative to root or absolute ones.
+     */
+    public Builder addModule(String name, String... inputs) {
+      if (moduleNames.contains(name)) {
+        throw new IllegalArgumentException(
+            String.format("Module '%s' is added twice", name));
+      }
+      if (inputs.length == 0) {
+        throw new IllegalArgumentException(
+            String.format("Module '%s' must have inputs", name));
+      }
+
+      moduleNames.add(name);
+      moduleInputs.add(Arrays.asList(inputs));
+      return this;
+    }
+
+    /**
+     * Same as --replace command line option.
+     *
+     * @param search  Regex pattern.
+     * @param replacement  $1, $2,.. are links to groups in search.
+     */
+    public Builder addReplace(String search, String replacement) {
+      replaces.add(new Replace(search, replacement));
+      return this;
+    }
+
+    /**
+     * @param command  %s is replaced with an input path.
+     */
+    public Builder setPreprocessCommand(String command) {
+      this.preprocessCommand = command;
+      return this;
+    }
+
+    /**
+     * @param workers  0 means one per core.
+     */
+    public Builder setPreprocessWorkers(int workers) {
+      if (workers < 0) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Option '%s' must be a non-negative integer. Found: %s",
+                ConfigOption.PREPROCESS_WORKERS.getName(), workers));
+      }
+
+      this.preprocessWorkers = workers;
+      return this;
+    }
+
+    public Builder setPreprocessTimeout(long millis) {
+      if (millis <= 0) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Option '%s' must be a positive number. Found: %s ms",
+                ConfigOption.PREPROCESS_TIMEOUT.getName(), millis));
+      }
+
+      this.preprocessTimeout = millis;
+      return this;
+    }
+
+    /**
+     * @param engine  "regex" or "single-pass".
+     */
+    public Builder setEngine(String engine) {
+      Engine.parse(engine);
+      this.engine = engine;
+      return this;
+    }
+
+    public Builder setParallel(boolean parallel) {
+      this.parallel = parallel;
+      return this;
+    }
+
+    public Builder setFragments(boolean fragments) {
+      this.fragments = fragments;
+      return this;
+    }
+
+    /**
+     * @param outputCacheDir  Catalog minified css is cached in between
+     *                        runs, null to cache nothing.
+     * @param sizeBytes  Size limit of the cache.
+     */
+    public Builder setOutputCache(String outputCacheDir, long sizeBytes) {
+      if (sizeBytes < 0) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Option '%s' must be a non-negative number. Found: %s bytes",
+                ConfigOption.OUTPUT_CACHE_SIZE.getName(), sizeBytes));
+      }
+
+      this.outputCacheDir = outputCacheDir;
+      this.outputCacheSize = sizeBytes;
+      return this;
+    }
+
+
+    /**
+     * @throws IllegalArgumentException  If options don't make a valid
+     *                                   config.
+     */
+    public Config build() {
+      if (outputWrapper != null &&
+          !outputWrapper.contains(OUTPUT_WRAPPER_MARKER)) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Option '%s' did not contain placeholder %s",
+                ConfigOption.OUTPUT_WRAPPER.getName(), OUTPUT_WRAPPER_MARKER));
+      }
+      if (!Charset.isSupported(charset)) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Option '%s' is not a supported charset. Found: %s",
+                ConfigOption.CHARSET.getName(), charset));
+      }
+
+      List<Module> modules = new ArrayList<Module>();
+      for (int i = 0; i < moduleNames.size(); i++) {
+        List<String> inputs = new ArrayList<String>();
+        for (String input : moduleInputs.get(i)) {
+          inputs.add(
+              new File(input).isAbsolute() ?
+                  input : new File(rootPath, input).getPath());
+        }
+        modules.add(new Module(moduleNames.get(i), inputs, null));
+      }
+
+      return new Config(
+          rootPath,
+          charset,
+          outputWrapper,
+          Collections.unmodifiableList(modules),
+          Collections.unmodifiableList(new ArrayList<Replace>(replaces)),
+          preprocessCommand,
+          false,
+          Engine.parse(engine),
+          parallel,
+          1,
+          false,
+          null,
+          outputCacheDir,
+          outputCacheSize,
+          fragments,
+          preprocessWorkers == 0 ?
+              Runtime.getRuntime().availableProcessors() : preprocessWorkers,
+          preprocessTimeout,
+          false,
+          Collections.<String>emptyList(),
+          null,
+          null,
+          null);
+    }
+
+  }
+
 }
@@ -42,10 +42,45 @@ class ConfigBuilder {
 
   private String preprocessCommand;
 
+  private String engine;
+
+  private Boolean parallel;
+
+  private Number workers;
+
+  private Boolean incremental;
+
+  private String cacheDir;
+
+  private String outputCacheDir;
+
+  private Number outputCacheSize;
+
+  private Boolean fragments;
+
+  private Number preprocessWorkers;
+
+  private Number preprocessTimeout;
+
+  private Boolean preprocessCache;
+
+  private List<String> preprocessDeps = new ArrayList<String>();
+
+  private String preprocessDepfile;
+
+  private String preprocessWorkerCommand;
+
 
   ConfigBuilder(CommandLine cmdLine) {
+    this(cmdLine, cmdLine.getArgs()[0]);
+  }
+
+  /**
+   * @param configFilePath  One of config files given in cmdLine.
+   */
+  ConfigBuilder(CommandLine cmdLine, String configFilePath) {
     this.cmdLine = cmdLine;
-    configFilePath = cmdLine.getArgs()[0];
+    this.configFilePath = configFilePath;
   }
 
 
@@ -59,7 +94,22 @@ class ConfigBuilder {
         getModules(),
         getReplaces(),
         preprocessCommand,
-        isQuiet());
+        isQuiet(),
+        getEngine(),
+        isParallel(),
+        getWorkers(),
+        isIncremental(),
+        getCacheFullPath(),
+        getOutputCacheFullPath(),
+        getOutputCacheSize(),
+        isFragments(),
+        getPreprocessWorkers(),
+        getPreprocessTimeout(),
+        isPreprocessCache(),
+        preprocessDeps,
+        preprocessDepfile,
+        preprocessWorkerCommand,
+        new File(configFilePath).getCanonicalPath());
   }
 
 
@@ -123,6 +173,62 @@ class ConfigBuilder {
     this.preprocessCommand = command;
   }
 
+  public void setEngine(String engine) {
+    this.engine = engine;
+  }
+
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  public void setWorkers(Number workers) {
+    this.workers = workers;
+  }
+
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  public void setCacheDir(String cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  public void setOutputCacheDir(String outputCacheDir) {
+    this.outputCacheDir = outputCacheDir;
+  }
+
+  public void setOutputCacheSize(Number outputCacheSize) {
+    this.outputCacheSize = outputCacheSize;
+  }
+
+  public void setFragments(boolean fragments) {
+    this.fragments = fragments;
+  }
+
+  public void setPreprocessWorkers(Number preprocessWorkers) {
+    this.preprocessWorkers = preprocessWorkers;
+  }
+
+  public void setPreprocessTimeout(Number preprocessTimeout) {
+    this.preprocessTimeout = preprocessTimeout;
+  }
+
+  public void setPreprocessCache(boolean preprocessCache) {
+    this.preprocessCache = preprocessCache;
+  }
+
+  public void addPreprocessDep(String glob) {
+    preprocessDeps.add(glob);
+  }
+
+  public void setPreprocessDepfile(String depfile) {
+    this.preprocessDepfile = depfile;
+  }
+
+  public void setPreprocessWorkerCommand(String command) {
+    this.preprocessWorkerCommand = command;
+  }
+
 
 
 
@@ -149,6 +255,156 @@ class ConfigBuilder {
     }
   }
 
+  private Config.Engine getEngine() {
+    String engineName =
+        engine != null ? engine : ConfigOption.ENGINE.getDefaultValue();
+
+    return Config.Engine.parse(engineName);
+  }
+
+  private boolean isParallel() {
+    if (parallel != null) {
+      return parallel;
+    } else {
+      return Boolean.parseBoolean(ConfigOption.PARALLEL.getDefaultValue());
+    }
+  }
+
+  private int getWorkers() {
+    return getWorkerCount(workers, ConfigOption.WORKERS);
+  }
+
+  private int getPreprocessWorkers() {
+    return getWorkerCount(preprocessWorkers, ConfigOption.PREPROCESS_WORKERS);
+  }
+
+  private int getWorkerCount(Number workers, ConfigOption option) {
+    if (workers == null) {
+      workers = Integer.parseInt(option.getDefaultValue());
+    }
+
+    double value = workers.doubleValue();
+    if (value < 0 || value != Math.floor(value) || value > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Option '%s' must be a non-negative integer. Found: %s",
+              option.getName(), workers));
+    }
+
+    // 0 means one worker per core
+    return value == 0 ?
+        Runtime.getRuntime().availableProcessors() : (int) value;
+  }
+
+  private long getPreprocessTimeout() {
+    double seconds;
+    if (preprocessTimeout != null) {
+      seconds = preprocessTimeout.doubleValue();
+    } else {
+      seconds = Double.parseDouble(
+          ConfigOption.PREPROCESS_TIMEOUT.getDefaultValue());
+    }
+
+    if (seconds <= 0) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Option '%s' must be a positive number. Found: %s",
+              ConfigOption.PREPROCESS_TIMEOUT.getName(), preprocessTimeout));
+    }
+
+    return (long) (seconds * 1000);
+  }
+
+  private boolean isIncremental() {
+    boolean result;
+    if (incremental != null) {
+      result = incremental;
+    } else {
+      result =
+          Boolean.parseBoolean(ConfigOption.INCREMENTAL.getDefaultValue());
+    }
+
+    // files the preprocessor reads are only known from deps and depfile
+    if (result && preprocessCommand != null && preprocessDeps.isEmpty() &&
+        preprocessDepfile == null) {
+      System.err.printf(
+          "WARNING: Option \"%s\" is ignored in %s: \"%s\" reads files " +
+              "not declared by \"%s\" or \"%s\"\n",
+          ConfigOption.INCREMENTAL.getName(), configFilePath,
+          ConfigOption.PREPROCESS.getName(),
+          ConfigOption.PREPROCESS_DEPS.getName(),
+          ConfigOption.PREPROCESS_DEPFILE.getName());
+      return false;
+    }
+
+    return result;
+  }
+
+  private String getCacheFullPath() {
+    if (cacheDir != null) {
+      return getConfigRelativePath(cacheDir);
+    } else {
+      return getConfigRelativePath(ConfigOption.CACHE_DIR.getDefaultValue());
+    }
+  }
+
+  private String getOutputCacheFullPath() {
+    if (outputCacheDir != null) {
+      return getConfigRelativePath(outputCacheDir);
+    } else {
+      return null;
+    }
+  }
+
+  private long getOutputCacheSize() {
+    double megabytes;
+    if (outputCacheSize != null) {
+      megabytes = outputCacheSize.doubleValue();
+    } else {
+      megabytes = Double.parseDouble(
+          ConfigOption.OUTPUT_CACHE_SIZE.getDefaultValue());
+    }
+
+    if (megabytes < 0) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Option '%s' must be a non-negative number. Found: %s",
+              ConfigOption.OUTPUT_CACHE_SIZE.getName(), outputCacheSize));
+    }
+
+    return (long) (megabytes * 1024 * 1024);
+  }
+
+  private boolean isFragments() {
+    if (fragments != null) {
+      return fragments;
+    } else {
+      return Boolean.parseBoolean(ConfigOption.FRAGMENTS.getDefaultValue());
+    }
+  }
+
+  private boolean isPreprocessCache() {
+    if (preprocessCache != null) {
+      return preprocessCache;
+    } else {
+      return Boolean.parseBoolean(
+          ConfigOption.PREPROCESS_CACHE.getDefaultValue());
+    }
+  }
+
+  /**
+   * @return  Absolute path as is, relative one resolved against
+   *          config file location.
+   */
+  private String getConfigRelativePath(String path) {
+    if (new File(path).isAbsolute()) {
+      return path;
+    }
+
+    String configCatalog = new File(configFilePath).getParent();
+    return new File(configCatalog, path).getPath();
+  }
+
   private List<Config.Module> getModules() {
     if (modulesInfo == null) {
       throw new RuntimeException(
@@ -91,7 +91,158 @@ public enum ConfigOption {
           builder.setPreprocessCommand(preprocessCommand);
         }
       },
-      "UTF-8")
+      "UTF-8"),
+
+  ENGINE(
+      "engine", "string",
+      new Updater(){
+        @Override
+        public void update(String engineName, ConfigBuilder builder){
+          builder.setEngine(engineName);
+        }
+      },
+      Config.Engine.REGEX.getName()),
+
+  PARALLEL(
+      "parallel", "boolean",
+      new Updater(){
+        @Override
+        public void update(boolean parallel, ConfigBuilder builder){
+          builder.setParallel(parallel);
+        }
+      },
+      "false"),
+
+  WORKERS(
+      "workers", "number",
+      new Updater(){
+        @Override
+        public void update(Number workers, ConfigBuilder builder){
+          builder.setWorkers(workers);
+        }
+      },
+      "1"),
+
+  INCREMENTAL(
+      "incremental", "boolean",
+      new Updater(){
+        @Override
+        public void update(boolean incremental, ConfigBuilder builder){
+          builder.setIncremental(incremental);
+        }
+      },
+      "false"),
+
+  CACHE_DIR(
+      "cache-dir", "string",
+      new Updater(){
+        @Override
+        public void update(String cacheDir, ConfigBuilder builder){
+          builder.setCacheDir(cacheDir);
+        }
+      },
+      ".css-compressor-cache"), // relative to location of config json file
+
+  OUTPUT_CACHE_DIR(
+      "output-cache-dir", "string",
+      new Updater(){
+        @Override
+        public void update(String outputCacheDir, ConfigBuilder builder){
+          builder.setOutputCacheDir(outputCacheDir);
+        }
+      }), // relative to location of config json file
+
+  OUTPUT_CACHE_SIZE(
+      "output-cache-size", "number",
+      new Updater(){
+        @Override
+        public void update(Number megabytes, ConfigBuilder builder){
+          builder.setOutputCacheSize(megabytes);
+        }
+      },
+      "256"), // megabytes
+
+  FRAGMENTS(
+      "fragments", "boolean",
+      new Updater(){
+        @Override
+        public void update(boolean fragments, ConfigBuilder builder){
+          builder.setFragments(fragments);
+        }
+      },
+      "false"),
+
+  PREPROCESS_WORKERS(
+      "preprocess-workers", "number",
+      new Updater(){
+        @Override
+        public void update(Number workers, ConfigBuilder builder){
+          builder.setPreprocessWorkers(workers);
+        }
+      },
+      "1"),
+
+  PREPROCESS_TIMEOUT(
+      "preprocess-timeout", "number",
+      new Updater(){
+        @Override
+        public void update(Number seconds, ConfigBuilder builder){
+          builder.setPreprocessTimeout(seconds);
+        }
+      },
+      "30"), // seconds
+
+  PREPROCESS_CACHE(
+      "preprocess-cache", "boolean",
+      new Updater(){
+        @Override
+        public void update(boolean preprocessCache, ConfigBuilder builder){
+          builder.setPreprocessCache(preprocessCache);
+        }
+      },
+      "false"),
+
+  PREPROCESS_DEPS(
+      "preprocess-deps", "string or array",
+      new Updater(){
+        @Override
+        public void update(String glob, ConfigBuilder builder){
+          builder.addPreprocessDep(glob);
+        }
+
+        @Override
+        public void update(JsonArray globs, ConfigBuilder builder) {
+          for (JsonElement item : globs) {
+            String glob = Utils.jsonElementToStringOrNull(item);
+            if (glob == null) {
+              throw new RuntimeException(
+                  String.format(
+                      "Some parts of array '%s' are not string: %s",
+                      ConfigOption.PREPROCESS_DEPS.getName(), item));
+            }
+
+            update(glob, builder);
+          }
+        }
+      }), // globs relative to root
+
+  PREPROCESS_DEPFILE(
+      "preprocess-depfile", "string",
+      new Updater(){
+        @Override
+        public void update(String depfile, ConfigBuilder builder){
+          builder.setPreprocessDepfile(depfile);
+        }
+      }),
+
+  PREPROCESS_WORKER(
+      "preprocess-worker", "string",
+      new Updater(){
+        @Override
+        public void update(String command, ConfigBuilder builder){
+          builder.setPreprocessWorkerCommand(command);
+        }
+      })
   ;
 
 
@@ -0,0 +1,379 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import org.apache.commons.cli.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Builds several config files in one process. Compressors of all configs
+ * share files read during the build and engines.
+ *
+ * A single config is built as usual. Several configs are built one by one
+ * or on a pool of workers, then a summary of all of them is printed.
+ * Output of configs built in parallel is printed in order of configs when
+ * all of them are done.
+ */
+class CssBatch {
+
+  private static final String GLOB_CHARS = "*?[{";
+
+
+  private final CommandLine cmdLine;
+
+  private final BuildContext context;
+
+
+  CssBatch(CommandLine cmdLine, BuildContext context) {
+    this.cmdLine = cmdLine;
+    this.context = context;
+  }
+
+
+  /**
+   * @return  Config file paths given in cmdLine, globs (e.g.
+   *          "configs/*.json" quoted from shell) are expanded.
+   */
+  public static List<String> getConfigPaths(CommandLine cmdLine)
+      throws IOException {
+
+    List<String> paths = new ArrayList<String>();
+    for (String arg : cmdLine.getArgs()) {
+      if (isGlob(arg)) {
+        List<String> matches = expandGlob(arg);
+        if (matches.isEmpty()) {
+          throw new RuntimeException(
+              String.format("No config files match '%s'", arg));
+        }
+        paths.addAll(matches);
+      } else {
+        paths.add(arg);
+      }
+    }
+
+    return paths;
+  }
+
+  /**
+   * @return  How many configs may be built at the same time.
+   */
+  public static int getWorkers(CommandLine cmdLine) {
+    String value = cmdLine.getOptionValue("config-workers", "1");
+
+    int workers;
+    try {
+      workers = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      workers = -1;
+    }
+    if (workers < 0) {
+      throw new RuntimeException(
+          String.format(
+              "Config workers count '%s' is not a non-negative number",
+              value));
+    }
+
+    return workers == 0 ? Runtime.getRuntime().availableProcessors() : workers;
+  }
+
+
+  public void build(List<String> configPaths, int workers)
+      throws IOException {
+
+    if (configPaths.size() == 1) {
+      String configPath = configPaths.get(0);
+      compress(
+          new ConfigBuilder(cmdLine, configPath).build(), configPath,
+          System.out, System.err);
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    List<ConfigBuildResult> results;
+    if (workers <= 1) {
+      results = new ArrayList<ConfigBuildResult>();
+      for (String configPath : configPaths) {
+        results.add(buildConfig(configPath, System.out, System.err));
+      }
+    } else {
+      results = buildInParallel(configPaths, workers);
+    }
+
+    int failed = 0;
+    for (int i = 0; i < results.size(); i++) {
+      ConfigBuildResult result = results.get(i);
+      if (result.error != null) {
+        failed++;
+        System.err.println(
+            String.format(
+                "ERROR: Config '%s' failed: %s",
+                configPaths.get(i), result.error.getMessage()));
+      }
+    }
+
+    if (!cmdLine.hasOption("quiet")) {
+      System.out.println(
+          String.format(
+              "INFO: built %d config(s) in %d ms, %d failed",
+              configPaths.size(), System.currentTimeMillis() - start,
+              failed));
+
+      for (int i = 0; i < results.size(); i++) {
+        ConfigBuildResult result = results.get(i);
+        System.out.println(
+            result.error != null ?
+                String.format("INFO:   %s: failed", configPaths.get(i)) :
+                String.format(
+                    "INFO:   %s: %d module(s) in %d ms",
+                    configPaths.get(i), result.modules, result.millis));
+      }
+    }
+
+    if (failed > 0) {
+      throw new RuntimeException(
+          String.format(
+              "%d of %d configs failed to build", failed, configPaths.size()));
+    }
+  }
+
+
+  /**
+   * Builds modules of config, every config gets a compressor of its own
+   * by default.
+   */
+  protected void compress(
+      Config config, String configPath, PrintStream out, PrintStream err)
+      throws IOException {
+
+    CssCompressor compressor = new CssCompressor(config, context);
+    try {
+      compressor.compress(config.getModules(), out, err);
+    } finally {
+      compressor.close();
+    }
+  }
+
+
+  private List<ConfigBuildResult> buildInParallel(
+      List<String> configPaths, int workers) {
+
+    // configs are read in order, reading prints warnings
+    final List<Config> configs = new ArrayList<Config>();
+    List<Exception> configErrors = new ArrayList<Exception>();
+    for (String configPath : configPaths) {
+      try {
+        configs.add(new ConfigBuilder(cmdLine, configPath).build());
+        configErrors.add(null);
+      } catch (Exception e) {
+        configs.add(null);
+        configErrors.add(e);
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    List<Future<ConfigBuildResult>> futures =
+        new ArrayList<Future<ConfigBuildResult>>();
+
+    try {
+      for (int i = 0; i < configPaths.size(); i++) {
+        final String configPath = configPaths.get(i);
+        final Config config = configs.get(i);
+        if (config == null) {
+          futures.add(null);
+          continue;
+        }
+
+        futures.add(executor.submit(new Callable<ConfigBuildResult>() {
+          @Override
+          public ConfigBuildResult call() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+            ConfigBuildResult result = buildConfig(
+                config, configPath,
+                new PrintStream(out, true), new PrintStream(err, true));
+            result.out = out.toString();
+            result.err = err.toString();
+            return result;
+          }
+        }));
+      }
+
+      List<ConfigBuildResult> results = new ArrayList<ConfigBuildResult>();
+      for (int i = 0; i < configPaths.size(); i++) {
+        ConfigBuildResult result;
+        if (futures.get(i) == null) {
+          result = new ConfigBuildResult(configErrors.get(i), 0, 0);
+        } else {
+          result = getResult(futures.get(i));
+        }
+
+        System.out.print(result.out);
+        System.err.print(result.err);
+        results.add(result);
+      }
+      System.out.flush();
+      System.err.flush();
+
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private ConfigBuildResult buildConfig(
+      String configPath, PrintStream out, PrintStream err) {
+
+    Config config;
+    try {
+      config = new ConfigBuilder(cmdLine, configPath).build();
+    } catch (Exception e) {
+      return new ConfigBuildResult(e, 0, 0);
+    }
+
+    return buildConfig(config, configPath, out, err);
+  }
+
+  private ConfigBuildResult buildConfig(
+      Config config, String configPath, PrintStream out, PrintStream err) {
+
+    long start = System.currentTimeMillis();
+    Exception error = null;
+    try {
+      compress(config, configPath, out, err);
+    } catch (Exception e) {
+      error = e;
+    }
+
+    return new ConfigBuildResult(
+        error, config.getModules().size(),
+        System.currentTimeMillis() - start);
+  }
+
+  private static ConfigBuildResult getResult(
+      Future<ConfigBuildResult> future) {
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Build was interrupted");
+    } catch (ExecutionException e) {
+      // only errors get here, exceptions are kept in the result
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+
+  private static boolean isGlob(String path) {
+    for (int i = 0; i < GLOB_CHARS.length(); i++) {
+      if (path.indexOf(GLOB_CHARS.charAt(i)) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A glob without a catalog part matches files of the current catalog
+   * only, as in a shell.
+   *
+   * @return  Sorted paths of files matching glob.
+   */
+  private static List<String> expandGlob(String glob) throws IOException {
+    // files are searched in the catalog before the first glob char
+    int globStart = glob.length();
+    for (int i = 0; i < GLOB_CHARS.length(); i++) {
+      int index = glob.indexOf(GLOB_CHARS.charAt(i));
+      if (index >= 0) {
+        globStart = Math.min(globStart, index);
+      }
+    }
+    final int catalogEnd = Math.max(
+        glob.lastIndexOf('/', globStart),
+        glob.lastIndexOf(File.separatorChar, globStart));
+    final Path catalog = Paths.get(
+        catalogEnd < 0 ? "." :
+        catalogEnd == 0 ? "/" : glob.substring(0, catalogEnd));
+
+    final PathMatcher matcher =
+        FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    final List<String> paths = new ArrayList<String>();
+
+    if (Files.isDirectory(catalog)) {
+      boolean hasCatalog =
+          glob.indexOf('/') >= 0 || glob.indexOf(File.separatorChar) >= 0;
+      int depth = hasCatalog ? Integer.MAX_VALUE : 1;
+      Files.walkFileTree(
+          catalog, EnumSet.noneOf(FileVisitOption.class), depth,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(
+                Path file, BasicFileAttributes attributes) {
+
+              if (attributes.isDirectory()) {
+                // catalogs at the depth limit are visited as files
+                return FileVisitResult.CONTINUE;
+              }
+
+              Path path = catalogEnd < 0 ? catalog.relativize(file) : file;
+              if (matcher.matches(path)) {
+                paths.add(path.toString());
+              }
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    }
+    Collections.sort(paths);
+
+    return paths;
+  }
+
+
+
+  private final static class ConfigBuildResult {
+
+    final Exception error;
+    final int modules;
+    final long millis;
+
+    // output of a config built in parallel
+    String out = "";
+    String err = "";
+
+    ConfigBuildResult(Exception error, int modules, long millis) {
+      this.error = error;
+      this.modules = modules;
+      this.millis = millis;
+    }
+
+  }
+
+}
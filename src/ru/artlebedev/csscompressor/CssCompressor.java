@@ -6,81 +6,548 @@
 
 package ru.artlebedev.csscompressor;
 
-import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.ExecuteWatchdog;
-import org.apache.commons.exec.PumpStreamHandler;
+import com.yahoo.platform.yui.compressor.CssEngine;
+import com.yahoo.platform.yui.compressor.FragmentCssEngine;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class CssCompressor {
 
-  /*
-    CSS imports are allowed in 2 syntaxes:
-      1. @import url("style.css")
-      2. @import "style.css"
-    So this regex is expecting a valid input CSS.
+  private final Config config;
 
-    TODO(samilyak): Consider using more bulletproof regex -
-    it tracks a paring of quotes and parenthesis
-    @import\s+(?:url\(\s*(?=[^;$]+?\)))?(["']?)([\w\\\/\-\_\.]+?\.css)\1(?!["'])[^;$]*?(;|$)
+  // shared by all modules, engines are stateless
+  private final CssEngine engine;
 
-    TODO(samilyak): Prevent from matching @import inside CSS comments
-  */
-  private static final Pattern cssImportPattern = Pattern.compile(
-      "@import\\s+" +
+  private final CssFileCache files;
 
-      // optional 'url(' part (non capturing subpattern) with optional quote
-      "(?:url\\(\\s*)?" + "[\"']?" +
+  // --replace rules compiled once
+  private final Replacer replacer;
 
-      // file path ending with '.css' in capturing subpattern 1
-      // word characters, slashes, dash, underscore, dot,
-      // colon and question mark (possible for absolute urls) are allowed
-      "([\\w\\\\/\\-_.:?]+?\\.css)" +
+  // null unless builds are incremental
+  private final BuildManifest manifest;
 
-      // the rest of the line until semicolon or line break
-      "[^;$]*?(;|$)",
-      Pattern.MULTILINE);
+  // null unless output cache catalog is set
+  private final OutputCache outputCache;
 
-  private final Config config;
+  // null unless fragments of modules are minified one by one
+  private final FragmentCssEngine fragmentEngine;
+  private final FragmentCssEngine.Cache fragmentCache;
+
+  // null unless preprocessor runs as persistent workers, they are kept
+  // running between builds
+  private final PreprocessWorkers preprocessWorkers;
+
+  // canonical paths of files every module was last built from
+  private final ConcurrentMap<String, List<String>> moduleFiles =
+      new ConcurrentHashMap<String, List<String>>();
 
 
 
   public CssCompressor(Config config) {
+    this(config, new BuildContext());
+  }
+
+  /**
+   * @param context  Shared with compressors of other configs.
+   */
+  CssCompressor(Config config, BuildContext context) {
     this.config = config;
+    this.engine = context.getEngine(config.getEngine(), config.isParallel());
+    this.files = context.getFiles();
+    this.replacer = new Replacer(config.getReplaces());
+    this.manifest = config.isIncremental() ?
+        new BuildManifest(
+            new File(config.getCacheDir()), config.getConfigPath()) :
+        null;
+    this.outputCache = config.getOutputCacheDir() != null ?
+        new OutputCache(
+            new File(config.getOutputCacheDir()),
+            config.getOutputCacheSize(),
+            BuildManifest.COMPRESSOR_VERSION + " " +
+                config.getEngine().getName()) :
+        null;
+
+    if (config.isFragments()) {
+      this.fragmentEngine =
+          new FragmentCssEngine(context.getEngine(config.getEngine(), false));
+      this.fragmentCache = new FragmentCache(outputCache);
+    } else {
+      this.fragmentEngine = null;
+      this.fragmentCache = null;
+    }
+
+    this.preprocessWorkers =
+        config.getPreprocessCommand() != null &&
+            config.getPreprocessWorkerCommand() != null ?
+        new PreprocessWorkers(
+            config.getPreprocessWorkerCommand(), config.getCharset()) :
+        null;
   }
 
 
   public void compress() throws IOException {
-    for (Config.Module module : config.getModules()) {
-      prepareModuleOutputCatalog(module);
+    compress(config.getModules());
+  }
+
+
+  /**
+   * Stops persistent preprocess workers, if any.
+   */
+  void close() {
+    if (preprocessWorkers != null) {
+      preprocessWorkers.shutdown();
+    }
+  }
+
+
+  /**
+   * Builds only the given modules of config.
+   */
+  void compress(List<Config.Module> modules) throws IOException {
+    compress(modules, System.out, System.err);
+  }
+
+  /**
+   * Builds only the given modules of config printing service messages
+   * to out and errors to err.
+   */
+  void compress(List<Config.Module> modules, PrintStream out, PrintStream err)
+      throws IOException {
+
+    PrintWriter log = new PrintWriter(out, true);
+
+    if (manifest != null) {
+      manifest.startBuild();
+    }
+
+    List<Config.Module> outdated = new ArrayList<Config.Module>();
+    for (Config.Module module : modules) {
+      if (!isUpToDate(module, log)) {
+        outdated.add(module);
+      }
+    }
+
+    PreprocessCache preprocessCache = createPreprocessCache();
+    PreprocessPool preprocessPool = createPreprocessPool(preprocessCache);
+
+    OutputWriter writer = new OutputWriter();
+
+    try {
+      // all commands are started at once, the pool limits how many run
+      List<Map<String, Future<PreprocessPool.Output>>> preprocessed =
+          new ArrayList<Map<String, Future<PreprocessPool.Output>>>();
+      for (Config.Module module : outdated) {
+        preprocessed.add(submitInputs(module, preprocessPool));
+      }
+
+      int workers = Math.min(config.getWorkers(), outdated.size());
+      if (workers <= 1) {
+        for (int i = 0; i < outdated.size(); i++) {
+          buildModule(outdated.get(i), preprocessed.get(i), writer, log);
+        }
+      } else {
+        compressInParallel(outdated, preprocessed, writer, workers, out, err);
+      }
+    } finally {
+      if (preprocessPool != null) {
+        preprocessPool.shutdown();
+      }
+    }
+
+    if (!config.isQuiet()) {
+      log.println(
+          String.format(
+              "INFO: %d output file(s) written, %d unchanged",
+              writer.getWrittenCount(), writer.getSkippedCount()));
+    }
+
+    if (outputCache != null) {
+      outputCache.evict();
+    }
+    if (preprocessCache != null) {
+      preprocessCache.evict();
+    }
+  }
+
+
+  /**
+   * Builds css of a module without writing it to the output.
+   *
+   * @param processedFiles  Receives canonical paths of files css is built
+   *                        from.
+   */
+  String buildInMemory(
+      Config.Module module, List<String> processedFiles, PrintWriter log)
+      throws IOException {
+
+    PreprocessPool preprocessPool =
+        createPreprocessPool(createPreprocessCache());
+    try {
+      return buildCss(
+          module, submitInputs(module, preprocessPool), processedFiles, log);
+    } finally {
+      if (preprocessPool != null) {
+        preprocessPool.shutdown();
+      }
+    }
+  }
+
+
+  /**
+   * Minifies css given as is, with replaces and output wrapper applied.
+   * Imports are not inlined, there is no file they are relative to.
+   */
+  String compressCss(String css) throws IOException {
+    return wrapCssWithOutputWrapper(replacer.apply(minify(css)));
+  }
+
+
+  /**
+   * @return  null if outputs of preprocess command are not cached.
+   */
+  private PreprocessCache createPreprocessCache() {
+    if (config.getPreprocessCommand() == null || !config.isPreprocessCache()) {
+      return null;
+    }
+
+    return new PreprocessCache(
+        new OutputCache(
+            new File(config.getCacheDir(), "preprocess"),
+            config.getOutputCacheSize(),
+            ""),
+        config.getCharset(),
+        config.getRootPath(),
+        config.getPreprocessDeps(),
+        config.getPreprocessDepfile());
+  }
+
+  /**
+   * @return  null if there is no preprocess command.
+   */
+  private PreprocessPool createPreprocessPool(PreprocessCache cache) {
+    if (config.getPreprocessCommand() == null) {
+      return null;
+    }
+
+    return new PreprocessPool(
+        config.getPreprocessCommand(),
+        config.getCharset(),
+        config.getPreprocessWorkers(),
+        config.getPreprocessTimeout(),
+        cache,
+        preprocessWorkers);
+  }
+
+  /**
+   * Starts preprocessing of module inputs. An input listed several times,
+   * under any path, is preprocessed once as only the first is built.
+   * Inputs imported by earlier ones are known only when those are built,
+   * see concatCssFiles() for what happens to their commands then.
+   *
+   * @return  Outputs by input path, null if there is no pool.
+   */
+  private Map<String, Future<PreprocessPool.Output>> submitInputs(
+      Config.Module module, PreprocessPool preprocessPool)
+      throws IOException {
+
+    if (preprocessPool == null) {
+      return null;
+    }
+
+    Map<String, Future<PreprocessPool.Output>> outputs =
+        new HashMap<String, Future<PreprocessPool.Output>>();
+    Set<String> canonicalPaths = new HashSet<String>();
+    for (String path : module.inputs) {
+      if (canonicalPaths.add(files.getCanonicalPath(path))) {
+        outputs.put(path, preprocessPool.submit(path));
+      }
+    }
+    return outputs;
+  }
+
 
-      String css = concatCssFiles(module.inputs, true);
+  /**
+   * Builds modules on a pool of workers. Every module logs into its own
+   * buffer, buffers and errors are printed in the order of modules
+   * in config when all of them are done.
+   */
+  private void compressInParallel(
+      List<Config.Module> modules,
+      final List<Map<String, Future<PreprocessPool.Output>>> preprocessed,
+      final OutputWriter writer, int workers,
+      PrintStream out, PrintStream err) {
 
-      com.yahoo.platform.yui.compressor.CssCompressor compressor =
-          new com.yahoo.platform.yui.compressor.CssCompressor(
-              new StringReader(css));
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    List<Future<ModuleBuildResult>> futures =
+        new ArrayList<Future<ModuleBuildResult>>(modules.size());
 
+    try {
+      for (int i = 0; i < modules.size(); i++) {
+        final Config.Module module = modules.get(i);
+        final Map<String, Future<PreprocessPool.Output>> moduleOutputs =
+            preprocessed.get(i);
+
+        futures.add(executor.submit(new Callable<ModuleBuildResult>() {
+          @Override
+          public ModuleBuildResult call() {
+            StringWriter log = new StringWriter();
+            Exception error = null;
+            try {
+              buildModule(
+                  module, moduleOutputs, writer, new PrintWriter(log, true));
+            } catch (Exception e) {
+              error = e;
+            }
+
+            return new ModuleBuildResult(log.toString(), error);
+          }
+        }));
+      }
+
+      int failed = 0;
+      for (int i = 0; i < modules.size(); i++) {
+        ModuleBuildResult result = getResult(futures.get(i));
+
+        out.print(result.log);
+        if (result.error != null) {
+          failed++;
+          err.println(
+              String.format(
+                  "ERROR: Module '%s' failed: %s",
+                  modules.get(i).name, result.error.getMessage()));
+        }
+      }
+      out.flush();
+
+      if (failed > 0) {
+        throw new RuntimeException(
+            String.format(
+                "%d of %d modules failed to build", failed, modules.size()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static ModuleBuildResult getResult(
+      Future<ModuleBuildResult> future) {
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Build was interrupted");
+    } catch (ExecutionException e) {
+      // only errors get here, exceptions are kept in the result
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * @return  true if builds are incremental and the module doesn't need
+   *          to be built again.
+   */
+  private boolean isUpToDate(Config.Module module, PrintWriter log)
+      throws IOException {
+
+    if (manifest == null) {
+      return false;
+    }
+
+    List<String> builtFrom =
+        manifest.getFilesIfUpToDate(module, getSettingsHash(module));
+    if (builtFrom == null) {
+      return false;
+    }
+
+    moduleFiles.put(module.name, builtFrom);
+    if (!config.isQuiet()) {
+      log.println(
+          String.format("INFO: module '%s' is up to date", module.name));
+    }
+    return true;
+  }
+
+  /**
+   * @param preprocessed  Preprocess command outputs by module input path,
+   *                      null if there is no command.
+   */
+  private void buildModule(
+      Config.Module module,
+      Map<String, Future<PreprocessPool.Output>> preprocessed,
+      OutputWriter writer, PrintWriter log) throws IOException {
+
+    prepareModuleOutputCatalog(module);
+
+    // kept even if the build fails, the files may be fixed later
+    List<String> processedFiles = new ArrayList<String>();
+    moduleFiles.put(module.name, processedFiles);
+    String css = buildCss(module, preprocessed, processedFiles, log);
+
+    byte[] output = Utils.getBytes(css, config.getCharset());
+    if (!writer.write(module.outputPath, output) && !config.isQuiet()) {
+      log.println(
+          String.format(
+              "INFO: output of module '%s' is unchanged", module.name));
+    }
+
+    if (manifest != null) {
+      manifest.update(module, getSettingsHash(module), processedFiles, output);
+    }
+  }
+
+  private String buildCss(
+      Config.Module module,
+      Map<String, Future<PreprocessPool.Output>> preprocessed,
+      List<String> processedFiles, PrintWriter log) throws IOException {
+
+    List<String> fragments =
+        concatCssFiles(module.inputs, preprocessed, processedFiles, log);
+    if (preprocessed != null) {
+      addPreprocessDeps(module, processedFiles);
+    }
+
+    String css = minify(fragments);
+    css = replacer.apply(css);
+    return wrapCssWithOutputWrapper(css);
+  }
+
+  /**
+   * Adds files the preprocessor has read besides module inputs, as
+   * declared by preprocess deps and depfiles, so that changes of them
+   * are noticed like changes of imports.
+   */
+  private void addPreprocessDeps(
+      Config.Module module, List<String> processedFiles) throws IOException {
+
+    List<String> deps = PreprocessCache.findGlobDeps(
+        config.getRootPath(), config.getPreprocessDeps());
+
+    if (config.getPreprocessDepfile() != null) {
+      for (String input : module.inputs) {
+        List<String> inputDeps =
+            PreprocessCache.readDepfile(config.getPreprocessDepfile(), input);
+        if (inputDeps != null) {
+          deps.addAll(inputDeps);
+        }
+      }
+    }
+
+    for (String dep : deps) {
+      if (new File(dep).isFile()) {
+        String canonicalPath = files.getCanonicalPath(dep);
+        if (!processedFiles.contains(canonicalPath)) {
+          processedFiles.add(canonicalPath);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return  Canonical paths of files the module was last built from, its
+   *          inputs and their transitive imports. Empty if the module
+   *          has not been built yet.
+   */
+  List<String> getModuleFiles(Config.Module module) {
+    List<String> files = moduleFiles.get(module.name);
+    if (files == null) {
+      return Collections.emptyList();
+    }
+
+    return files;
+  }
+
+  /**
+   * @return  Hash of everything besides input files that affects
+   *          the module output.
+   */
+  private String getSettingsHash(Config.Module module) {
+    StringBuilder settings = new StringBuilder();
+    settings
+        .append(BuildManifest.COMPRESSOR_VERSION).append('\0')
+        .append(config.getCharset()).append('\0')
+        .append(config.getPreprocessCommand()).append('\0')
+        .append(config.getPreprocessWorkerCommand()).append('\0')
+        .append(config.getPreprocessDepfile()).append('\0')
+        .append(config.getOutputWrapper()).append('\0')
+        .append(module.outputPath).append('\0');
+
+    for (String input : module.inputs) {
+      settings.append(input).append('\0');
+    }
+
+    for (String glob : config.getPreprocessDeps()) {
+      settings.append(glob).append('\0');
+    }
+
+    for (Config.Replace replace : config.getReplaces()) {
+      settings
+          .append(replace.search).append('\0')
+          .append(replace.replacement).append('\0');
+    }
+
+    return Utils.hash(Utils.getBytes(settings.toString(), "UTF-8"));
+  }
+
+  private String minify(List<String> fragments) throws IOException {
+    if (fragmentCache != null) {
       StringWriter stringWriter = new StringWriter();
-      compressor.compress(stringWriter, -1);
-      css = stringWriter.toString();
+      if (fragmentEngine.compress(fragments, stringWriter, fragmentCache)) {
+        return stringWriter.toString();
+      }
+    }
+
+    StringBuilder css = new StringBuilder();
+    for (String fragment : fragments) {
+      css.append(fragment);
+    }
 
-      css = applyReplaces(css);
-      css = wrapCssWithOutputWrapper(css);
+    return minify(css.toString());
+  }
+
+  private String minify(String css) throws IOException {
+    String key = null;
+    if (outputCache != null) {
+      key = outputCache.getKey(css);
+
+      String cached = outputCache.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    StringWriter stringWriter = new StringWriter();
+    engine.compress(css, stringWriter, -1);
+    String result = stringWriter.toString();
 
-      Utils.writeToFile(module.outputPath, css, config.getCharset());
+    if (outputCache != null) {
+      outputCache.put(key, result);
     }
+
+    return result;
   }
 
   private void prepareModuleOutputCatalog(Config.Module module) {
@@ -97,34 +564,53 @@ public class CssCompressor {
     }
   }
 
-  private String concatCssFiles(List<String> paths, boolean tryPreprocess)
-      throws IOException {
+  /**
+   * @return  Fragments of css of files at paths with their imports
+   *          inlined.
+   */
+  List<String> concatCssFiles(
+      List<String> paths,
+      Map<String, Future<PreprocessPool.Output>> preprocessed,
+      List<String> processedFiles, PrintWriter log) throws IOException {
 
-    StringBuilder stringResult = new StringBuilder();
-    List<String> processedFiles = new ArrayList<String>(0);
+    List<String> fragments = new ArrayList<String>();
 
     for (String path : paths) {
-      CssProcessingResult pathProcessingResult =
-          processCssFile(path, processedFiles, tryPreprocess);
-
-      stringResult.append(pathProcessingResult.content);
-      processedFiles = pathProcessingResult.processedFiles;
-    }
-
-    return stringResult.toString();
-  }
-
-
-  private String applyReplaces(String css) {
-    List<Config.Replace> replaces = config.getReplaces();
+      if (processedFiles.contains(files.getCanonicalPath(path))) {
+        // built already, as an import or under another path: its command
+        // is not run if it has not started yet, its output and failure
+        // are ignored
+        Future<PreprocessPool.Output> unused =
+            preprocessed != null ? preprocessed.get(path) : null;
+        if (unused != null) {
+          unused.cancel(false);
+        }
+        continue;
+      }
 
-    if (replaces != null) {
-      for (Config.Replace replace : replaces) {
-        css = css.replaceAll(replace.search, replace.replacement);
+      PreprocessPool.Output output = null;
+      if (preprocessed != null) {
+        output = PreprocessPool.get(preprocessed.get(path));
+
+        if (!config.isQuiet()) {
+          log.println(
+              String.format(
+                  output.cached ?
+                      "INFO: output of preprocess command `%s` is cached" :
+                  output.byWorker ?
+                      "INFO: preprocess command `%s` is run by worker" :
+                      "INFO: executing preprocess command `%s`",
+                  output.command));
+        }
+        if (!output.stderr.equals("")) {
+          log.println(output.stderr);
+        }
       }
+
+      processCssFile(path, processedFiles, output, fragments, log);
     }
 
-    return css;
+    return fragments;
   }
 
 
@@ -146,9 +632,14 @@ public class CssCompressor {
   }
 
 
-  private CssProcessingResult processCssFile(
-      String path, List<String> processedFiles, boolean tryPreprocess)
-      throws IOException {
+  /**
+   * Adds content of the file with its imports inlined to fragments:
+   * content slices between imports and fragments of the imported files.
+   */
+  private void processCssFile(
+      String path, List<String> processedFiles,
+      PreprocessPool.Output preprocessed, List<String> fragments,
+      PrintWriter log) throws IOException {
 
     /*
       We need to prevent from processing same files more than once,
@@ -157,93 +648,43 @@ public class CssCompressor {
       containing paths of already processed files.
     */
 
-    File fileAtPath = new File(path);
-    String fileCanonicalPath = fileAtPath.getCanonicalPath();
-    String fileCatalog = fileAtPath.getParent();
+    String fileCanonicalPath = files.getCanonicalPath(path);
+    String fileCatalog = new File(path).getParent();
 
     if (processedFiles.contains(fileCanonicalPath)) {
-      return new CssProcessingResult("", processedFiles);
+      return;
     }
 
     processedFiles.add(fileCanonicalPath);
 
-    String inputContent;
-    if (tryPreprocess && config.getPreprocessCommand() != null) {
-      inputContent =
-          preprocessAndGetOutput(config.getPreprocessCommand(), path);
+    CssFileCache.CssFile file;
+    if (preprocessed != null) {
+      file = CssFileCache.parse(preprocessed.stdout);
     } else {
-      inputContent = Utils.readFile(path, config.getCharset());
+      file = files.get(fileCanonicalPath, config.getCharset());
     }
 
-    Matcher matcher = cssImportPattern.matcher(inputContent);
+    int appendIndex = 0;
+    for (CssFileCache.CssImport cssImport : file.imports) {
+      addFragment(fragments, file.content, appendIndex, cssImport.start);
 
-    StringBuffer stringResult = new StringBuffer();
-    while(matcher.find()){
-      String importPath = matcher.group(1);
-      
-      String importFileContent = "";
-      if (!isCssImportAbsolute(importPath)) {
-        File importFile = new File(fileCatalog, importPath);
-        CssProcessingResult importProcessingResult =
-            processCssFile(importFile.getPath(), processedFiles, false);
-
-        importFileContent = importProcessingResult.content;
+      if (!isCssImportAbsolute(cssImport.path)) {
+        File importFile = new File(fileCatalog, cssImport.path);
+        processCssFile(
+            importFile.getPath(), processedFiles, null, fragments, log);
       }
 
-      /**
-       * Do it like that (rather than simply
-       * matcher.appendReplacement(stringResult, importFileContent))
-       * because appendReplacement() is treating symbols \ and $ in its
-       * 2nd argument in a special regex specific way.
-       * So we need to avoid problem when source css
-       * content:'\2014\a0' is converted to content:'2014a0'
-       */
-      matcher.appendReplacement(stringResult, "");
-      stringResult.append(importFileContent);
+      appendIndex = cssImport.end;
     }
-    matcher.appendTail(stringResult);
-
-
-    return new CssProcessingResult(stringResult.toString(), processedFiles);
+    addFragment(fragments, file.content, appendIndex, file.content.length());
   }
 
+  private static void addFragment(
+      List<String> fragments, String content, int start, int end) {
 
-  private String preprocessAndGetOutput(String command, String path)
-      throws IOException {
-
-    // replace %s with a file path
-    String expandedCommand = String.format(command, path);
-
-    CommandLine commandLine = CommandLine.parse(expandedCommand);
-
-    DefaultExecutor executor = new DefaultExecutor();
-    executor.setWatchdog(new ExecuteWatchdog(30 * 1000));
-    final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
-    final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
-    executor.setStreamHandler(new PumpStreamHandler(stdout, stderr));
-
-    if (!config.isQuiet()) {
-      System.out.println(
-          String.format(
-              "INFO: executing preprocess command `%s`", expandedCommand));
-    }
-
-    try {
-      executor.execute(commandLine);
-
-      String innerErrors = stderr.toString(config.getCharset());
-      if (innerErrors != null && !innerErrors.equals("")) {
-        System.out.println(innerErrors);
-      }
-
-    } catch (IOException e) {
-      throw new RuntimeException(
-          String.format("Preprocessing file %s failed.", path) +
-          "\n" + stderr.toString(config.getCharset()) +
-          "\n" + e.getMessage());
+    if (start < end) {
+      fragments.add(content.substring(start, end));
     }
-
-    return stdout.toString(config.getCharset());
   }
 
 
@@ -261,18 +702,82 @@ public class CssCompressor {
 
 
 
-  private final static class CssProcessingResult {
-
-    final String content;
-    final List<String> processedFiles;
+  private final static class ModuleBuildResult {
 
-    public CssProcessingResult(
-        String content, List<String> processedFiles){
+    final String log;
+    final Exception error;
 
-      this.content = content;
-      this.processedFiles = processedFiles;
+    public ModuleBuildResult(String log, Exception error) {
+      this.log = log;
+      this.error = error;
     }
 
   }
 
+
+  /**
+   * Minified fragments recently used, kept in memory up to MAX_CHARS of
+   * css, and in output cache if there is one. Fragments evicted from memory
+   * are found in output cache on the next build.
+   */
+  private final static class FragmentCache
+      implements FragmentCssEngine.Cache {
+
+    // source and minified css of all fragments kept, about 32 MB
+    private static final long MAX_CHARS = 16 * 1024 * 1024;
+
+    // in access order, least recently used first
+    private final LinkedHashMap<String, String> fragments =
+        new LinkedHashMap<String, String>(16, 0.75f, true);
+
+    private long chars;
+
+    private final OutputCache outputCache;
+
+    FragmentCache(OutputCache outputCache) {
+      this.outputCache = outputCache;
+    }
+
+    @Override
+    public String get(String css) {
+      String minified;
+      synchronized (this) {
+        minified = fragments.get(css);
+      }
+
+      if (minified == null && outputCache != null) {
+        minified = outputCache.get(outputCache.getKey(css));
+        if (minified != null) {
+          keep(css, minified);
+        }
+      }
+
+      return minified;
+    }
+
+    @Override
+    public void put(String css, String minified) throws IOException {
+      keep(css, minified);
+      if (outputCache != null) {
+        outputCache.put(outputCache.getKey(css), minified);
+      }
+    }
+
+    private synchronized void keep(String css, String minified) {
+      String previous = fragments.put(css, minified);
+      chars += css.length() + minified.length();
+      if (previous != null) {
+        chars -= css.length() + previous.length();
+      }
+
+      Iterator<Map.Entry<String, String>> eldest =
+          fragments.entrySet().iterator();
+      while (chars > MAX_CHARS && eldest.hasNext()) {
+        Map.Entry<String, String> entry = eldest.next();
+        chars -= entry.getKey().length() + entry.getValue().length();
+        eldest.remove();
+      }
+    }
+
+  }
 }
@@ -0,0 +1,405 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import org.apache.commons.cli.CommandLine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Long-lived process building modules for {@link DaemonClient}, so builds
+ * don't pay for JVM startup and keep caches and JIT-compiled code
+ * between invocations. Listens on a loopback port.
+ *
+ * Only the user who started the daemon may send it builds (they run
+ * preprocess commands of configs as that user): on start the daemon
+ * writes a random token to a file in the user's home catalog readable
+ * by the owner only, and requests without the token are dropped.
+ *
+ * Protocol:
+ *   request:  UTF protocol name, UTF token, UTF working directory, int
+ *             count of arguments, UTF arguments (as given to the jar);
+ *   response: frames of byte kind followed by int length and bytes of
+ *             stdout (STDOUT) or stderr (STDERR) output, and finally
+ *             the exit code (EXIT). A request is answered with REJECTED
+ *             instead if it comes from another working directory
+ *             (preprocess commands and relative paths depend on it),
+ *             otherwise with ACCEPTED before the build starts.
+ *
+ * A compressor is kept for every distinct arguments and config file
+ * version, requests using the same compressor are built one at a time.
+ * All compressors share files read during builds.
+ */
+class CssDaemon {
+
+  static final String PROTOCOL = "css-compressor-daemon 2";
+
+  static final int DEFAULT_PORT = 17430;
+
+  static final byte ACCEPTED = 'a';
+  static final byte REJECTED = 'r';
+  static final byte STDOUT = 'o';
+  static final byte STDERR = 'e';
+  static final byte EXIT = 'x';
+
+  private static final int MAX_COMPRESSORS = 16;
+
+  private static final int TOKEN_BYTES = 32;
+
+
+  // connection output of a request handled by the current thread
+  private static final ThreadLocal<DataOutputStream> connections =
+      new ThreadLocal<DataOutputStream>();
+
+
+  private final int port;
+
+  private final String workingDirectory;
+
+  private String token;
+
+  // arguments and config file version => compressor, in order of access
+  private final Map<String, CssCompressor> compressors =
+      new LinkedHashMap<String, CssCompressor>(16, 0.75f, true);
+
+  // compressor => count of requests building with it, guarded by
+  // compressors, compressors in use are never evicted
+  private final Map<CssCompressor, Integer> users =
+      new HashMap<CssCompressor, Integer>();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  // shared by all compressors
+  private final BuildContext context = new BuildContext();
+
+
+  CssDaemon(int port) throws IOException {
+    this.port = port;
+    this.workingDirectory = new File("").getCanonicalPath();
+  }
+
+
+  /**
+   * @return  Token of a daemon listening on port, null if there is none
+   *          or it was started by another user.
+   */
+  static String readToken(int port) {
+    try {
+      return new String(
+          Files.readAllBytes(getTokenFile(port).toPath()), "UTF-8");
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static File getTokenFile(int port) {
+    return new File(
+        System.getProperty("user.home"),
+        ".css-compressor/daemon-" + port + ".token");
+  }
+
+
+  /**
+   * Serves requests until the process is killed.
+   */
+  public void serve() throws IOException {
+    ServerSocket serverSocket =
+        new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    token = writeToken();
+
+    // output of request threads goes to their clients
+    System.setOut(new PrintStream(new RoutedStream(System.out, STDOUT), true));
+    System.setErr(new PrintStream(new RoutedStream(System.err, STDERR), true));
+
+    System.out.println(
+        String.format(
+            "INFO: daemon is listening on localhost:%d in %s",
+            port, workingDirectory));
+
+    while (true) {
+      final Socket socket = serverSocket.accept();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            handle(socket);
+          } catch (IOException e) {
+            // client has gone, nobody to report to
+          } finally {
+            try {
+              socket.close();
+            } catch (IOException e) {
+              // closed anyway
+            }
+          }
+        }
+      });
+    }
+  }
+
+
+  private void handle(Socket socket) throws IOException {
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+    if (!in.readUTF().equals(PROTOCOL)) {
+      return;
+    }
+    if (!MessageDigest.isEqual(
+        Utils.getBytes(in.readUTF(), "UTF-8"),
+        Utils.getBytes(token, "UTF-8"))) {
+      return;
+    }
+    String clientDirectory = in.readUTF();
+    String[] args = new String[in.readInt()];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = in.readUTF();
+    }
+
+    if (!new File(clientDirectory).getCanonicalPath().equals(
+        workingDirectory)) {
+      out.writeByte(REJECTED);
+      out.flush();
+      return;
+    }
+    out.writeByte(ACCEPTED);
+    out.flush();
+
+    int exitCode = 0;
+    connections.set(out);
+    try {
+      build(args);
+    } catch (Exception e) {
+      e.printStackTrace();
+      exitCode = 1;
+    } finally {
+      System.out.flush();
+      System.err.flush();
+      connections.remove();
+    }
+
+    synchronized (out) {
+      out.writeByte(EXIT);
+      out.writeInt(exitCode);
+      out.flush();
+    }
+  }
+
+  private void build(final String[] args) throws IOException {
+    CommandLine cmdLine = Main.createCommandLine(args);
+    if (cmdLine.getArgs().length == 0) {
+      throw new RuntimeException("Config file is not given");
+    }
+
+    CssBatch batch = new CssBatch(cmdLine, context) {
+      @Override
+      protected void compress(
+          Config config, String configPath, PrintStream out, PrintStream err)
+          throws IOException {
+
+        CssCompressor compressor =
+            getCompressor(args, new File(configPath), config);
+        try {
+          synchronized (compressor) {
+            compressor.compress(config.getModules(), out, err);
+          }
+        } finally {
+          releaseCompressor(compressor);
+        }
+      }
+    };
+
+    // config paths are resolved here, not taken from the client
+    List<String> configPaths = new ArrayList<String>();
+    for (String path : CssBatch.getConfigPaths(cmdLine)) {
+      File configFile = new File(path).getCanonicalFile();
+      if (!configFile.isFile()) {
+        throw new RuntimeException(
+            String.format("Config file '%s' does not exist", path));
+      }
+      configPaths.add(configFile.getPath());
+    }
+
+    batch.build(configPaths, CssBatch.getWorkers(cmdLine));
+  }
+
+  /**
+   * Writes a new random token to the token file, readable and writable
+   * by the owner only.
+   */
+  private String writeToken() throws IOException {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : bytes) {
+      token.append(String.format("%02x", b));
+    }
+
+    File file = getTokenFile(port);
+    File catalog = file.getParentFile();
+    catalog.mkdirs();
+    setOwnerOnly(catalog.toPath(), "rwx------");
+
+    // the file gets its permissions before the token is in it
+    Path tmp = Files.createTempFile(catalog.toPath(), ".daemon-", ".tmp");
+    try {
+      setOwnerOnly(tmp, "rw-------");
+      Files.write(tmp, Utils.getBytes(token.toString(), "UTF-8"));
+      Files.move(
+          tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+
+    return token.toString();
+  }
+
+  private static void setOwnerOnly(Path path, String permissions)
+      throws IOException {
+
+    try {
+      Files.setPosixFilePermissions(
+          path, PosixFilePermissions.fromString(permissions));
+    } catch (UnsupportedOperationException e) {
+      // not a POSIX file system
+      File file = path.toFile();
+      if (!(file.setReadable(false, false) && file.setReadable(true, true) &&
+          file.setWritable(false, false) && file.setWritable(true, true))) {
+        throw new IOException("Unable to restrict access to " + path);
+      }
+    }
+  }
+
+  /**
+   * @return  Compressor for the arguments and config version, to be given
+   *          back with releaseCompressor() when the build is done.
+   */
+  private CssCompressor getCompressor(
+      String[] args, File configFile, Config config) {
+
+    StringBuilder key = new StringBuilder();
+    for (String arg : args) {
+      key.append(arg).append('\0');
+    }
+    key.append(configFile.getAbsolutePath()).append('\0')
+        .append(configFile.lastModified()).append('\0')
+        .append(configFile.length());
+
+    synchronized (compressors) {
+      CssCompressor compressor = compressors.get(key.toString());
+      if (compressor == null) {
+        compressor = new CssCompressor(config, context);
+        compressors.put(key.toString(), compressor);
+      }
+
+      Integer count = users.get(compressor);
+      users.put(compressor, count == null ? 1 : count + 1);
+
+      // the least recently used idle compressors go, busy ones may keep
+      // the count over the limit until they are released
+      Iterator<CssCompressor> eldest = compressors.values().iterator();
+      while (compressors.size() > MAX_COMPRESSORS && eldest.hasNext()) {
+        CssCompressor candidate = eldest.next();
+        if (!users.containsKey(candidate)) {
+          candidate.close();
+          eldest.remove();
+        }
+      }
+
+      return compressor;
+    }
+  }
+
+  private void releaseCompressor(CssCompressor compressor) {
+    synchronized (compressors) {
+      int count = users.get(compressor);
+      if (count == 1) {
+        users.remove(compressor);
+      } else {
+        users.put(compressor, count - 1);
+      }
+    }
+  }
+
+
+
+  /**
+   * Sends output of request threads to their clients, output of other
+   * threads goes to the daemon's own stream.
+   */
+  private final static class RoutedStream extends OutputStream {
+
+    private final OutputStream fallback;
+
+    private final byte kind;
+
+    RoutedStream(OutputStream fallback, byte kind) {
+      this.fallback = fallback;
+      this.kind = kind;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+        throws IOException {
+
+      DataOutputStream connection = connections.get();
+      if (connection == null) {
+        fallback.write(bytes, offset, length);
+        return;
+      }
+
+      synchronized (connection) {
+        connection.writeByte(kind);
+        connection.writeInt(length);
+        connection.write(bytes, offset, length);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      DataOutputStream connection = connections.get();
+      if (connection == null) {
+        fallback.flush();
+      } else {
+        synchronized (connection) {
+          connection.flush();
+        }
+      }
+    }
+
+  }
+
+}
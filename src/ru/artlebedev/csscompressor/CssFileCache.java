@@ -0,0 +1,143 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+
+/**
+ * Css files read during a build, shared by all modules (and by configs
+ * built together). Every file is read and scanned for imports once,
+ * entries are keyed by canonical path, modification time and size of
+ * the file and charset, so a file changed on disk is read again.
+ *
+ * Safe to use from concurrent module builds.
+ */
+class CssFileCache {
+
+  private final ConcurrentMap<String, String> canonicalPaths =
+      new ConcurrentHashMap<String, String>();
+
+  private final ConcurrentMap<String, FutureTask<CssFile>> files =
+      new ConcurrentHashMap<String, FutureTask<CssFile>>();
+
+  // canonical path and charset => key of the latest read version, older
+  // versions are dropped so long-lived caches don't grow
+  private final ConcurrentMap<String, String> latestKeys =
+      new ConcurrentHashMap<String, String>();
+
+
+  public String getCanonicalPath(String path) throws IOException {
+    String canonicalPath = canonicalPaths.get(path);
+    if (canonicalPath == null) {
+      canonicalPath = new File(path).getCanonicalPath();
+      canonicalPaths.put(path, canonicalPath);
+    }
+
+    return canonicalPath;
+  }
+
+
+  /**
+   * @return  Content of the file at canonicalPath with its imports.
+   */
+  public CssFile get(final String canonicalPath, final String charset)
+      throws IOException {
+
+    File file = new File(canonicalPath);
+    String version = canonicalPath + "\n" + charset;
+    String key =
+        version + "\n" + file.lastModified() + "\n" + file.length();
+
+    FutureTask<CssFile> task = files.get(key);
+    if (task == null) {
+      FutureTask<CssFile> newTask = new FutureTask<CssFile>(
+          new Callable<CssFile>() {
+            @Override
+            public CssFile call() throws IOException {
+              return parse(Utils.readFile(canonicalPath, charset));
+            }
+          });
+
+      task = files.putIfAbsent(key, newTask);
+      if (task == null) {
+        String previousKey = latestKeys.put(version, key);
+        if (previousKey != null && !previousKey.equals(key)) {
+          files.remove(previousKey);
+        }
+
+        task = newTask;
+        task.run();
+      }
+    }
+
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading " + canonicalPath);
+    } catch (ExecutionException e) {
+      // let the next caller try again
+      files.remove(key, task);
+
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+
+  /**
+   * Scans css content for imports. Used directly for content that
+   * does not come from a file (e.g. preprocess command output).
+   */
+  public static CssFile parse(String content) {
+    return new CssFile(content, CssImportScanner.scan(content));
+  }
+
+
+
+  final static class CssFile {
+
+    final String content;
+    final List<CssImport> imports;
+
+    CssFile(String content, List<CssImport> imports) {
+      this.content = content;
+      this.imports = Collections.unmodifiableList(imports);
+    }
+
+  }
+
+
+  /**
+   * An import statement occupying content range [start, end).
+   */
+  final static class CssImport {
+
+    final int start;
+    final int end;
+    final String path;
+
+    CssImport(int start, int end, String path) {
+      this.start = start;
+      this.end = end;
+      this.path = path;
+    }
+
+  }
+
+}
@@ -0,0 +1,236 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Finds @import statements of css files in one pass over css, skipping
+ * comments, strings and url() values, so imports mentioned there are
+ * left alone.
+ *
+ * CSS imports are allowed in 2 syntaxes:
+ *   1. @import url("style.css")
+ *   2. @import "style.css"
+ * Quotes are optional. An import is inlined if its path is made of word
+ * characters, slashes, dash, underscore, dot, colon and question mark
+ * (possible for absolute urls) and ends with '.css', anything after that
+ * (e.g. "?v=2") is ignored. The statement lasts until semicolon or
+ * line break.
+ */
+class CssImportScanner {
+
+  private static final String IMPORT = "@import";
+
+  private static final String URL = "url(";
+
+  private static final String PATH_EXTENSION = ".css";
+
+
+  private final String css;
+
+  private final int length;
+
+
+  private CssImportScanner(String css) {
+    this.css = css;
+    this.length = css.length();
+  }
+
+
+  /**
+   * @return  Imports of css files in order of appearance.
+   */
+  public static List<CssFileCache.CssImport> scan(String css) {
+    return new CssImportScanner(css).scan();
+  }
+
+
+  private List<CssFileCache.CssImport> scan() {
+    List<CssFileCache.CssImport> imports =
+        new ArrayList<CssFileCache.CssImport>();
+
+    int i = 0;
+    while (i < length) {
+      char c = css.charAt(i);
+
+      if (c == '/' && i + 1 < length && css.charAt(i + 1) == '*') {
+        i = skipComment(i);
+
+      } else if (c == '"' || c == '\'') {
+        i = skipString(i);
+
+      } else if ((c == 'u' || c == 'U') && isUrl(i)) {
+        i = skipUrl(i);
+
+      } else if (c == '@' && css.startsWith(IMPORT, i)) {
+        CssFileCache.CssImport cssImport = parseImport(i);
+        if (cssImport != null) {
+          imports.add(cssImport);
+          i = cssImport.end;
+        } else {
+          i += IMPORT.length();
+        }
+
+      } else {
+        i++;
+      }
+    }
+
+    return imports;
+  }
+
+
+  /**
+   * @return  Import statement starting at start, null if it is not
+   *          an import of a css file.
+   */
+  private CssFileCache.CssImport parseImport(int start) {
+    int i = start + IMPORT.length();
+    if (i == length || !Character.isWhitespace(css.charAt(i))) {
+      return null;
+    }
+    i = skipWhitespace(i);
+
+    boolean url = css.regionMatches(true, i, URL, 0, URL.length());
+    if (url) {
+      i = skipWhitespace(i + URL.length());
+    }
+
+    int valueStart;
+    int valueEnd;
+    if (i < length && (css.charAt(i) == '"' || css.charAt(i) == '\'')) {
+      char quote = css.charAt(i);
+      valueStart = i + 1;
+      i = skipString(i);
+      valueEnd = i > valueStart && css.charAt(i - 1) == quote ? i - 1 : i;
+    } else {
+      valueStart = i;
+      while (i < length && !isValueEnd(css.charAt(i))) {
+        i++;
+      }
+      valueEnd = i;
+    }
+
+    String path = getPath(css.substring(valueStart, valueEnd));
+    if (path == null) {
+      return null;
+    }
+
+    // the rest of the statement until semicolon or line break
+    while (i < length) {
+      char c = css.charAt(i);
+      if (c == ';') {
+        i++;
+        break;
+      }
+      if (c == '\n' || c == '\r') {
+        break;
+      }
+      i = c == '"' || c == '\'' ? skipString(i) : i + 1;
+    }
+
+    return new CssFileCache.CssImport(start, i, path);
+  }
+
+  /**
+   * @return  Path of imported css file without query, null if value
+   *          is not a path of a css file.
+   */
+  private static String getPath(String value) {
+    int extension = value.indexOf(PATH_EXTENSION, 1);
+    if (extension < 0) {
+      return null;
+    }
+
+    for (int i = 0; i < extension; i++) {
+      if (!isPathChar(value.charAt(i))) {
+        return null;
+      }
+    }
+
+    return value.substring(0, extension + PATH_EXTENSION.length());
+  }
+
+  private static boolean isPathChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+        (c >= '0' && c <= '9') || c == '_' ||
+        c == '\\' || c == '/' || c == '-' || c == '.' || c == ':' || c == '?';
+  }
+
+  private static boolean isValueEnd(char c) {
+    return Character.isWhitespace(c) || c == ';' || c == ')' ||
+        c == '"' || c == '\'';
+  }
+
+
+  private boolean isUrl(int i) {
+    // not a tail of another identifier like "myurl("
+    if (i > 0) {
+      char previous = css.charAt(i - 1);
+      if (Character.isLetterOrDigit(previous) ||
+          previous == '-' || previous == '_') {
+        return false;
+      }
+    }
+
+    return css.regionMatches(true, i, URL, 0, URL.length());
+  }
+
+  /**
+   * @return  Index after an unquoted url value or after "url(" followed
+   *          by a quoted one, the string is skipped by the caller then.
+   */
+  private int skipUrl(int start) {
+    int i = skipWhitespace(start + URL.length());
+    if (i < length && (css.charAt(i) == '"' || css.charAt(i) == '\'')) {
+      return i;
+    }
+
+    int end = css.indexOf(')', i);
+    return end < 0 ? length : end + 1;
+  }
+
+  private int skipComment(int start) {
+    int end = css.indexOf("*/", start + 2);
+    return end < 0 ? length : end + 2;
+  }
+
+  /**
+   * @return  Index after the closing quote or the line break that ends
+   *          an unclosed string.
+   */
+  private int skipString(int start) {
+    char quote = css.charAt(start);
+
+    int i = start + 1;
+    while (i < length) {
+      char c = css.charAt(i);
+      if (c == '\\') {
+        i += 2;
+      } else if (c == quote) {
+        return i + 1;
+      } else if (c == '\n' || c == '\r') {
+        return i;
+      } else {
+        i++;
+      }
+    }
+
+    return length;
+  }
+
+  private int skipWhitespace(int i) {
+    while (i < length && Character.isWhitespace(css.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+}
@@ -0,0 +1,323 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Local http server building modules on request instead of writing them
+ * to outputs. Module "name" is served at "/name.css", "/" lists all of
+ * them.
+ *
+ * Built modules are kept in memory, least recently requested ones are
+ * dropped when there are too many. A module is built again once any
+ * file it was built from changes modification time or size. Responses
+ * carry a strong ETag of css, so browsers revalidating a module that
+ * has not changed get 304.
+ */
+class CssServer {
+
+  private static final int MAX_CACHED_MODULES = 64;
+
+  private static final String URL_SUFFIX = ".css";
+
+
+  private final Config config;
+
+  private final CssCompressor compressor;
+
+  private final Map<String, Config.Module> modulesByUrl =
+      new LinkedHashMap<String, Config.Module>();
+
+  // module name => built module, in order of access
+  private final Map<String, Entry> cache =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > MAX_CACHED_MODULES;
+        }
+      };
+
+  // a module is built by one request at a time, others wait for it
+  private final ConcurrentMap<String, Object> moduleLocks =
+      new ConcurrentHashMap<String, Object>();
+
+
+  CssServer(Config config, CssCompressor compressor) {
+    this.config = config;
+    this.compressor = compressor;
+
+    for (Config.Module module : config.getModules()) {
+      modulesByUrl.put("/" + module.name + URL_SUFFIX, module);
+    }
+  }
+
+
+  /**
+   * Starts serving on a loopback port, returns at once.
+   */
+  public void serve(int port) throws IOException {
+    HttpServer server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          respond(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.setExecutor(
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors()));
+    server.start();
+
+    System.out.println(
+        String.format(
+            "INFO: serving %d module(s) at http://localhost:%d/",
+            modulesByUrl.size(), server.getAddress().getPort()));
+  }
+
+
+  private void respond(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    if (!method.equals("GET") && !method.equals("HEAD")) {
+      sendText(exchange, 405, "Method not allowed");
+      return;
+    }
+
+    String path = exchange.getRequestURI().getPath();
+    if (path.equals("/")) {
+      StringBuilder index = new StringBuilder();
+      for (String url : modulesByUrl.keySet()) {
+        index.append(url).append('\n');
+      }
+      sendText(exchange, 200, index.toString());
+      return;
+    }
+
+    Config.Module module = modulesByUrl.get(path);
+    if (module == null) {
+      sendText(exchange, 404, "No module at " + path);
+      return;
+    }
+
+    Entry entry;
+    try {
+      entry = getEntry(module);
+    } catch (Exception e) {
+      String message =
+          String.format("Module '%s' failed: %s", module.name, e.getMessage());
+      System.err.println("ERROR: " + message);
+      sendText(exchange, 500, message);
+      return;
+    }
+
+    exchange.getResponseHeaders().set("ETag", entry.etag);
+    // always revalidate, it's cheap
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+
+    if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"),
+        entry.etag)) {
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+
+    exchange.getResponseHeaders().set(
+        "Content-Type", "text/css; charset=" + config.getCharset());
+    send(exchange, 200, entry.css, method.equals("HEAD"));
+  }
+
+  private Entry getEntry(Config.Module module) throws IOException {
+    Object lock = moduleLocks.get(module.name);
+    if (lock == null) {
+      moduleLocks.putIfAbsent(module.name, new Object());
+      lock = moduleLocks.get(module.name);
+    }
+
+    synchronized (lock) {
+      Entry entry;
+      synchronized (cache) {
+        entry = cache.get(module.name);
+      }
+      if (entry != null && entry.isFresh()) {
+        return entry;
+      }
+
+      // files are stat'ed before they are read, so a file changed during
+      // the build makes the entry stale rather than fresh with old css
+      List<String> knownFiles = new ArrayList<String>();
+      for (String input : module.inputs) {
+        knownFiles.add(new File(input).getCanonicalPath());
+      }
+      if (entry != null) {
+        knownFiles.addAll(Arrays.asList(entry.files));
+      }
+      Map<String, long[]> stats = Entry.stat(knownFiles);
+
+      long start = System.currentTimeMillis();
+      StringWriter log = new StringWriter();
+      List<String> files = new ArrayList<String>();
+      String css;
+      try {
+        css = compressor.buildInMemory(
+            module, files, new PrintWriter(log, true));
+      } finally {
+        // preprocessor stderr explains failed builds too, the log holds
+        // INFO lines only if not quiet
+        System.out.print(log);
+      }
+
+      entry = new Entry(
+          Utils.getBytes(css, config.getCharset()), files, stats);
+      synchronized (cache) {
+        cache.put(module.name, entry);
+      }
+
+      if (!config.isQuiet()) {
+        System.out.println(
+            String.format(
+                "INFO: built module '%s' in %d ms",
+                module.name, System.currentTimeMillis() - start));
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * @param ifNoneMatch  Value of If-None-Match header, may be null.
+   */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals(etag) || tag.equals("*")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void sendText(HttpExchange exchange, int status, String text)
+      throws IOException {
+
+    exchange.getResponseHeaders().set(
+        "Content-Type", "text/plain; charset=UTF-8");
+    send(
+        exchange, status, Utils.getBytes(text, "UTF-8"),
+        exchange.getRequestMethod().equals("HEAD"));
+  }
+
+  private static void send(
+      HttpExchange exchange, int status, byte[] body, boolean headOnly)
+      throws IOException {
+
+    if (headOnly) {
+      exchange.getResponseHeaders().set(
+          "Content-Length", String.valueOf(body.length));
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+
+    exchange.sendResponseHeaders(status, body.length);
+    OutputStream stream = exchange.getResponseBody();
+    try {
+      stream.write(body);
+    } finally {
+      stream.close();
+    }
+  }
+
+
+
+  /**
+   * Built module with modification times and sizes of files it was
+   * built from, taken before the build.
+   */
+  private final static class Entry {
+
+    final byte[] css;
+    final String etag;
+
+    final String[] files;
+    private final long[] lastModified;
+    private final long[] lengths;
+
+    /**
+     * @param stats  Modification times and sizes by path, taken before
+     *               the build. Files not there are stat'ed now.
+     */
+    Entry(byte[] css, List<String> files, Map<String, long[]> stats) {
+      this.css = css;
+      this.etag = "\"" + Utils.hash(css) + "\"";
+      this.files = files.toArray(new String[0]);
+      this.lastModified = new long[this.files.length];
+      this.lengths = new long[this.files.length];
+
+      for (int i = 0; i < this.files.length; i++) {
+        long[] stat = stats.get(this.files[i]);
+        if (stat == null) {
+          stat = stat(this.files[i]);
+        }
+        lastModified[i] = stat[0];
+        lengths[i] = stat[1];
+      }
+    }
+
+    static Map<String, long[]> stat(List<String> paths) {
+      Map<String, long[]> stats = new HashMap<String, long[]>();
+      for (String path : paths) {
+        stats.put(path, stat(path));
+      }
+      return stats;
+    }
+
+    private static long[] stat(String path) {
+      File file = new File(path);
+      return new long[] {file.lastModified(), file.length()};
+    }
+
+    boolean isFresh() {
+      for (int i = 0; i < files.length; i++) {
+        File file = new File(files[i]);
+        if (file.lastModified() != lastModified[i] ||
+            file.length() != lengths[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+}
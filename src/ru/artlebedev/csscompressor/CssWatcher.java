@@ -0,0 +1,188 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Builds all modules, then keeps rebuilding the modules affected by
+ * changes of their files until the process is killed.
+ *
+ * Every module is mapped to the files it was last built from (inputs with
+ * their transitive imports), so a change of a shared import rebuilds all
+ * modules including it and nothing else. Changes coming within
+ * a short time of each other (editor saves several files, or writes
+ * one file in steps) are built together.
+ */
+class CssWatcher {
+
+  // a build starts once there were no changes for that long
+  private static final long DEBOUNCE_MILLIS = 150;
+
+
+  private final Config config;
+
+  private final CssCompressor compressor;
+
+  private final WatchService watchService;
+
+  private final Map<WatchKey, Path> catalogs = new HashMap<WatchKey, Path>();
+
+  private final Set<Path> watchedCatalogs = new HashSet<Path>();
+
+  // file => modules built from it
+  private Map<Path, List<Config.Module>> modulesByFile;
+
+
+  CssWatcher(Config config, CssCompressor compressor) throws IOException {
+    this.config = config;
+    this.compressor = compressor;
+    this.watchService = FileSystems.getDefault().newWatchService();
+  }
+
+
+  public void watch() throws IOException {
+    build(config.getModules());
+
+    while (true) {
+      Set<Path> changedFiles = waitForChanges();
+
+      List<Config.Module> affectedModules = new ArrayList<Config.Module>();
+      for (Config.Module module : config.getModules()) {
+        for (String file : compressor.getModuleFiles(module)) {
+          if (changedFiles.contains(Paths.get(file))) {
+            affectedModules.add(module);
+            break;
+          }
+        }
+      }
+
+      if (!affectedModules.isEmpty()) {
+        build(affectedModules);
+      }
+    }
+  }
+
+
+  private void build(List<Config.Module> modules) throws IOException {
+    long start = System.currentTimeMillis();
+
+    try {
+      compressor.compress(modules);
+
+      if (!config.isQuiet()) {
+        System.out.println(
+            String.format(
+                "INFO: built %d module(s) in %d ms",
+                modules.size(), System.currentTimeMillis() - start));
+      }
+    } catch (IOException e) {
+      System.err.println("ERROR: " + e.getMessage());
+    } catch (RuntimeException e) {
+      System.err.println("ERROR: " + e.getMessage());
+    }
+
+    updateModulesByFile();
+  }
+
+
+  private void updateModulesByFile() throws IOException {
+    modulesByFile = new HashMap<Path, List<Config.Module>>();
+
+    for (Config.Module module : config.getModules()) {
+      for (String file : compressor.getModuleFiles(module)) {
+        Path path = Paths.get(file);
+
+        List<Config.Module> modules = modulesByFile.get(path);
+        if (modules == null) {
+          modules = new ArrayList<Config.Module>();
+          modulesByFile.put(path, modules);
+        }
+        modules.add(module);
+
+        Path catalog = path.getParent();
+        if (catalog != null && catalog.toFile().isDirectory() &&
+            watchedCatalogs.add(catalog)) {
+          catalogs.put(
+              catalog.register(
+                  watchService,
+                  StandardWatchEventKinds.ENTRY_CREATE,
+                  StandardWatchEventKinds.ENTRY_MODIFY,
+                  StandardWatchEventKinds.ENTRY_DELETE),
+              catalog);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Blocks until some files modules are built from change.
+   *
+   * @return  Paths of changed files.
+   */
+  private Set<Path> waitForChanges() throws IOException {
+    Set<Path> changedFiles = new HashSet<Path>();
+
+    try {
+      WatchKey key = watchService.take();
+      while (key != null) {
+        collectChanges(key, changedFiles);
+
+        if (changedFiles.isEmpty()) {
+          key = watchService.take();
+        } else {
+          key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Watching was interrupted");
+    }
+
+    return changedFiles;
+  }
+
+  private void collectChanges(WatchKey key, Set<Path> changedFiles) {
+    Path catalog = catalogs.get(key);
+
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        // events were lost, anything could change
+        changedFiles.addAll(modulesByFile.keySet());
+        continue;
+      }
+
+      Path file = catalog.resolve((Path) event.context());
+      if (modulesByFile.containsKey(file)) {
+        changedFiles.add(file);
+      }
+    }
+
+    if (!key.reset()) {
+      // catalog is gone, watch it again if it comes back
+      catalogs.remove(key);
+      watchedCatalogs.remove(catalog);
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+
+/**
+ * Passes a build to {@link CssDaemon} and prints its output as if
+ * the build ran in this process.
+ */
+class DaemonClient {
+
+  // loopback, a daemon either answers at once or is not there
+  private static final int CONNECT_TIMEOUT_MILLIS = 200;
+
+  private static final int ACCEPT_TIMEOUT_MILLIS = 2000;
+
+
+  private DaemonClient() {}
+
+
+  /**
+   * @return  Exit code of the build, null if there is no daemon to run it
+   *          (or it refused), so it's up to the caller.
+   */
+  public static Integer run(String[] args, int port) throws IOException {
+    String token = CssDaemon.readToken(port);
+    if (token == null) {
+      return null;
+    }
+
+    Socket socket = new Socket();
+    try {
+      try {
+        socket.connect(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+            CONNECT_TIMEOUT_MILLIS);
+        socket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(CssDaemon.PROTOCOL);
+        out.writeUTF(token);
+        out.writeUTF(new File("").getAbsolutePath());
+        out.writeInt(args.length);
+        for (String arg : args) {
+          out.writeUTF(arg);
+        }
+        out.flush();
+
+        if (socket.getInputStream().read() != CssDaemon.ACCEPTED) {
+          return null;
+        }
+      } catch (IOException e) {
+        // no daemon, something else is listening on the port, or
+        // the daemon has dropped a request with a stale token
+        return null;
+      }
+
+      // the build is done by the daemon from now on, however long it takes
+      socket.setSoTimeout(0);
+      return readOutput(new DataInputStream(socket.getInputStream()));
+
+    } finally {
+      socket.close();
+    }
+  }
+
+
+  private static int readOutput(DataInputStream in) throws IOException {
+    try {
+      while (true) {
+        byte kind = in.readByte();
+
+        if (kind == CssDaemon.EXIT) {
+          return in.readInt();
+        }
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        PrintStream stream = kind == CssDaemon.STDERR ? System.err : System.out;
+        stream.write(bytes);
+        stream.flush();
+      }
+    } catch (EOFException e) {
+      throw new IOException("Daemon has closed connection during the build");
+    }
+  }
+
+}
@@ -0,0 +1,238 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Compressor for use inside another Java program, e.g. an asset server.
+ * Builds css in memory and returns it along with service messages and
+ * errors: it never prints, never writes outputs and never exits the JVM.
+ *
+ * Thread-safe, any number of threads may compress at the same time.
+ * An instance keeps files it has read (until they change) and compiled
+ * replaces, so it's meant to be created once and kept.
+ *
+ *   Config config = new Config.Builder()
+ *       .setRoot("static/css")
+ *       .addModule("main", "reset.css", "main.css")
+ *       .build();
+ *   EmbeddedCssCompressor compressor = new EmbeddedCssCompressor(config);
+ *
+ *   EmbeddedCssCompressor.Result result =
+ *       compressor.compress(config.getModules().get(0));
+ *   if (result.isSuccess()) {
+ *     send(result.getCss());
+ *   }
+ */
+public final class EmbeddedCssCompressor {
+
+  private final Config config;
+
+  private final CssCompressor compressor;
+
+
+  public EmbeddedCssCompressor(Config config) {
+    this.config = config;
+    // a context of its own, nothing is shared with other instances
+    this.compressor = new CssCompressor(config, new BuildContext());
+  }
+
+
+  public Config getConfig() {
+    return config;
+  }
+
+
+  /**
+   * Builds a module of config: inputs with their imports inlined,
+   * preprocessed if there is a preprocess command, minified.
+   */
+  public Result compress(Config.Module module) {
+    StringWriter log = new StringWriter();
+    List<String> files = new ArrayList<String>();
+
+    try {
+      String css =
+          compressor.buildInMemory(module, files, new PrintWriter(log, true));
+      return new Result(css, files, log.toString(), null);
+    } catch (Exception e) {
+      return new Result(
+          null, files, log.toString(), new CompressError(module.name, e));
+    }
+  }
+
+  /**
+   * Minifies css as is. Imports are left alone, as there is no file
+   * they would be relative to.
+   */
+  public Result compress(CharSequence css) {
+    List<String> files = Collections.emptyList();
+
+    try {
+      return new Result(
+          compressor.compressCss(css.toString()), files, "", null);
+    } catch (Exception e) {
+      return new Result(null, files, "", new CompressError(null, e));
+    }
+  }
+
+
+  /**
+   * Stops persistent preprocess workers, if config has them. The
+   * compressor may still be used, workers are not started again.
+   */
+  public void close() {
+    compressor.close();
+  }
+
+
+
+  public static final class Result {
+
+    private final String css;
+    private final List<String> files;
+    private final List<String> messages;
+    private final CompressError error;
+
+    Result(
+        String css, List<String> files, String log, CompressError error) {
+
+      this.css = css;
+      this.files = Collections.unmodifiableList(files);
+      this.error = error;
+
+      List<String> messages = new ArrayList<String>();
+      for (String line : log.split("\r?\n")) {
+        if (line.length() > 0) {
+          messages.add(line);
+        }
+      }
+      this.messages = Collections.unmodifiableList(messages);
+    }
+
+    public boolean isSuccess() {
+      return error == null;
+    }
+
+    /**
+     * @return  Compressed css, null if compression failed.
+     */
+    public String getCss() {
+      return css;
+    }
+
+    /**
+     * @return  Canonical paths of files css was built from: module inputs
+     *          and their transitive imports. Those read before a failure
+     *          if compression failed.
+     */
+    public List<String> getFiles() {
+      return files;
+    }
+
+    /**
+     * @return  Service messages a build from the command line would print,
+     *          like preprocess commands run and their stderr.
+     */
+    public List<String> getMessages() {
+      return messages;
+    }
+
+    /**
+     * @return  null if compression succeeded.
+     */
+    public CompressError getError() {
+      return error;
+    }
+
+  }
+
+
+  public static final class CompressError {
+
+    public static enum Kind {
+
+      /**
+       * An input or an imported file doesn't exist.
+       */
+      FILE_NOT_FOUND,
+
+      /**
+       * A file can't be read or cache can't be written.
+       */
+      IO,
+
+      /**
+       * Preprocess command has failed.
+       */
+      PREPROCESS,
+
+      /**
+       * Anything else, a bug most likely.
+       */
+      INTERNAL
+
+    }
+
+    private final Kind kind;
+    private final String module;
+    private final Exception cause;
+
+    CompressError(String module, Exception cause) {
+      this.module = module;
+      this.cause = cause;
+
+      if (cause instanceof FileNotFoundException) {
+        kind = Kind.FILE_NOT_FOUND;
+      } else if (cause instanceof IOException) {
+        kind = Kind.IO;
+      } else if (cause instanceof PreprocessPool.PreprocessException) {
+        kind = Kind.PREPROCESS;
+      } else {
+        kind = Kind.INTERNAL;
+      }
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return  Name of the module that failed, null if css was given
+     *          as is.
+     */
+    public String getModule() {
+      return module;
+    }
+
+    public String getMessage() {
+      return cause.getMessage();
+    }
+
+    public Exception getCause() {
+      return cause;
+    }
+
+    @Override
+    public String toString() {
+      return module != null ?
+          String.format(
+              "%s: module '%s' failed: %s", kind, module, getMessage()) :
+          String.format("%s: %s", kind, getMessage());
+    }
+
+  }
+
+}
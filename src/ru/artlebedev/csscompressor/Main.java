@@ -15,6 +15,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import java.io.IOException;
+import java.util.List;
 
 public final class Main {
 
@@ -23,14 +24,52 @@ public final class Main {
 
   public static void main(String args[]) throws IOException {
     CommandLine cmdLine = createCommandLine(args);
+    int daemonPort = getPort(
+        cmdLine, "daemon-port", String.valueOf(CssDaemon.DEFAULT_PORT));
+
+    if (cmdLine.hasOption("daemon")) {
+      new CssDaemon(daemonPort).serve();
+      return;
+    }
 
     if (cmdLine.hasOption("help") || cmdLine.getArgs().length == 0) {
       printUsage();
       System.exit(1);
     }
 
-    ConfigBuilder builder = new ConfigBuilder(cmdLine);
-    new CssCompressor(builder.build()).compress();
+    // long running modes are not passed to a daemon
+    if (!cmdLine.hasOption("no-daemon") &&
+        !cmdLine.hasOption("watch") && !cmdLine.hasOption("serve")) {
+      Integer exitCode = DaemonClient.run(args, daemonPort);
+      if (exitCode != null) {
+        if (exitCode != 0) {
+          System.exit(exitCode);
+        }
+        return;
+      }
+    }
+
+    List<String> configPaths = CssBatch.getConfigPaths(cmdLine);
+
+    if (cmdLine.hasOption("serve") || cmdLine.hasOption("watch")) {
+      if (configPaths.size() != 1) {
+        throw new RuntimeException(
+            "--serve and --watch take exactly one config file");
+      }
+
+      Config config = new ConfigBuilder(cmdLine, configPaths.get(0)).build();
+      CssCompressor compressor = new CssCompressor(config);
+
+      if (cmdLine.hasOption("serve")) {
+        new CssServer(config, compressor)
+            .serve(getPort(cmdLine, "serve", null));
+      } else {
+        new CssWatcher(config, compressor).watch();
+      }
+    } else {
+      new CssBatch(cmdLine, new BuildContext())
+          .build(configPaths, CssBatch.getWorkers(cmdLine));
+    }
   }
 
 
@@ -59,6 +98,55 @@ public final class Main {
                      "(like preprocessing commands)")
                 .withLongOpt("quiet")
                 .create())
+        .addOption(
+            OptionBuilder
+                .withDescription(
+                    "build all modules, then keep rebuilding modules " +
+                    "whose files change until killed")
+                .withLongOpt("watch")
+                .create())
+        .addOption(
+            OptionBuilder
+                .withDescription(
+                    "serve modules built on request at " +
+                    "http://localhost:<port>/<module>.css instead of " +
+                    "writing outputs")
+                .withLongOpt("serve")
+                .withArgName("port")
+                .hasArg()
+                .create())
+        .addOption(
+            OptionBuilder
+                .withDescription(
+                    "keep running and build modules for other invocations " +
+                    "from the same working directory, which pass builds " +
+                    "to it instead of starting up")
+                .withLongOpt("daemon")
+                .create())
+        .addOption(
+            OptionBuilder
+                .withDescription(
+                    "loopback port of a daemon, " + CssDaemon.DEFAULT_PORT +
+                    " by default")
+                .withLongOpt("daemon-port")
+                .withArgName("port")
+                .hasArg()
+                .create())
+        .addOption(
+            OptionBuilder
+                .withDescription(
+                    "how many of several config files may be built at " +
+                    "the same time, 0 means one per processor core, " +
+                    "1 by default")
+                .withLongOpt("config-workers")
+                .withArgName("count")
+                .hasArg()
+                .create())
+        .addOption(
+            OptionBuilder
+                .withDescription("build in this process even if a daemon runs")
+                .withLongOpt("no-daemon")
+                .create())
         .addOption(
             OptionBuilder
                 .withDescription("print this message")
@@ -69,7 +157,7 @@ public final class Main {
   }
 
 
-  private static CommandLine createCommandLine(String args[])
+  static CommandLine createCommandLine(String args[])
       throws RuntimeException {
 
     CommandLineParser parser = new BasicParser();
@@ -86,13 +174,27 @@ public final class Main {
   }
 
 
+  private static int getPort(
+      CommandLine cmdLine, String option, String defaultValue) {
+
+    String port = cmdLine.getOptionValue(option, defaultValue);
+
+    try {
+      return Integer.parseInt(port);
+    } catch (NumberFormatException e) {
+      throw new RuntimeException(
+          String.format("Port '%s' is not a number", port));
+    }
+  }
+
+
   private static void printUsage() {
     HelpFormatter formatter = new HelpFormatter();
     formatter.setWidth(120);
     formatter.setSyntaxPrefix("Usage: ");
 
     formatter.printHelp(
-        "java -jar css-compressor.jar [options] config-json-file",
+        "java -jar css-compressor.jar [options] config-json-file...",
         options);
   }
 
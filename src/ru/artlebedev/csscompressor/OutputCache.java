@@ -0,0 +1,155 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * Minified css stored on disk by a hash of the css it was minified from
+ * and the compressor settings. The same concatenated css of a module
+ * (after switching branches, in another checkout or CI job sharing
+ * the catalog) is not minified again.
+ *
+ * Entries are written through temporary files and renamed, so several
+ * processes may use the same catalog. A hit bumps the entry modification
+ * time, eviction removes least recently used entries when the catalog
+ * grows bigger than its limit.
+ */
+class OutputCache {
+
+  private static final String CHARSET = "UTF-8";
+
+  private static final String ENTRY_SUFFIX = ".css";
+
+
+  private final File catalog;
+
+  private final long maxSize;
+
+  private final String settings;
+
+
+  /**
+   * @param settings  Anything besides input css that affects minified css.
+   */
+  OutputCache(File catalog, long maxSize, String settings) {
+    this.catalog = catalog;
+    this.maxSize = maxSize;
+    this.settings = settings;
+  }
+
+
+  public String getKey(String css) {
+    return Utils.hash(
+        Utils.getBytes(settings, CHARSET),
+        new byte[] {0},
+        Utils.getBytes(css, CHARSET));
+  }
+
+
+  /**
+   * @return  Minified css stored by key or null.
+   */
+  public String get(String key) {
+    File file = getEntryFile(key);
+
+    String css;
+    try {
+      css = Utils.readFile(file.getPath(), CHARSET);
+    } catch (IOException e) {
+      // not cached or evicted by another process just now
+      return null;
+    }
+
+    file.setLastModified(System.currentTimeMillis());
+    return css;
+  }
+
+
+  public void put(String key, String css) throws IOException {
+    File file = getEntryFile(key);
+    file.getParentFile().mkdirs();
+
+    File tmpFile = new File(
+        file.getParentFile(), key + "." + UUID.randomUUID() + ".tmp");
+    Utils.writeToFile(tmpFile.getPath(), css, CHARSET);
+
+    if (!tmpFile.renameTo(file)) {
+      // someone else has just put the same entry
+      tmpFile.delete();
+    }
+  }
+
+
+  /**
+   * Removes least recently used entries until the catalog is not bigger
+   * than its limit.
+   */
+  public void evict() {
+    List<File> entries = new ArrayList<File>();
+    long size = 0;
+
+    File[] buckets = catalog.listFiles();
+    if (buckets == null) {
+      return;
+    }
+
+    for (File bucket : buckets) {
+      File[] files = bucket.listFiles();
+      if (files == null) {
+        continue;
+      }
+
+      for (File file : files) {
+        if (file.getName().endsWith(ENTRY_SUFFIX)) {
+          entries.add(file);
+          size += file.length();
+        }
+      }
+    }
+
+    if (size <= maxSize) {
+      return;
+    }
+
+    final long[] lastModified = new long[entries.size()];
+    Integer[] order = new Integer[entries.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+      lastModified[i] = entries.get(i).lastModified();
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(lastModified[a], lastModified[b]);
+      }
+    });
+
+    for (int i = 0; i < order.length && size > maxSize; i++) {
+      File file = entries.get(order[i]);
+      long length = file.length();
+      if (file.delete()) {
+        size -= length;
+      }
+    }
+  }
+
+
+  private File getEntryFile(String key) {
+    // entries are spread over 256 catalogs
+    return new File(
+        new File(catalog, key.substring(0, 2)), key + ENTRY_SUFFIX);
+  }
+
+}
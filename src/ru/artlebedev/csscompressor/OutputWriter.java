@@ -0,0 +1,105 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Writes module outputs only if they differ from files already on disk,
+ * so unchanged outputs keep their modification time (for rsync, uploads,
+ * etc.). A changed output is written to a temporary file next to it and
+ * renamed over it, readers never see it half-written.
+ *
+ * Counts written and skipped files, may be used by several threads.
+ */
+class OutputWriter {
+
+  private final AtomicInteger written = new AtomicInteger();
+
+  private final AtomicInteger skipped = new AtomicInteger();
+
+
+  /**
+   * @return  false if the file already has this content and was not
+   *          written.
+   */
+  public boolean write(String path, byte[] content) throws IOException {
+    File file = new File(path);
+
+    if (isSame(file, content)) {
+      skipped.incrementAndGet();
+      return false;
+    }
+
+    File tmpFile = new File(
+        file.getAbsoluteFile().getParentFile(),
+        "." + file.getName() + "." + UUID.randomUUID() + ".tmp");
+
+    try {
+      OutputStream stream = new FileOutputStream(tmpFile);
+      try {
+        stream.write(content);
+      } finally {
+        stream.close();
+      }
+
+      move(tmpFile.toPath(), file.toPath());
+    } finally {
+      tmpFile.delete();
+    }
+
+    written.incrementAndGet();
+    return true;
+  }
+
+
+  public int getWrittenCount() {
+    return written.get();
+  }
+
+  public int getSkippedCount() {
+    return skipped.get();
+  }
+
+
+  private static boolean isSame(File file, byte[] content) {
+    // size first, most changed outputs don't need to be read
+    if (!file.isFile() || file.length() != content.length) {
+      return false;
+    }
+
+    try {
+      return Arrays.equals(Utils.readBytes(file.getPath()), content);
+    } catch (IOException e) {
+      // it will be overwritten
+      return false;
+    }
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(
+          source, target,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+}
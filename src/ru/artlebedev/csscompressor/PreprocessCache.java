@@ -0,0 +1,254 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Preprocess command outputs stored on disk by a hash of the expanded
+ * command, the input file and files the preprocessor reads besides it.
+ * Those are declared by globs (matched against all files under root)
+ * and/or a depfile written by the preprocessor in make format.
+ *
+ * An instance is used for one build: files matching the globs are hashed
+ * once and shared by all commands.
+ */
+class PreprocessCache {
+
+  private final OutputCache store;
+
+  private final String charset;
+
+  private final String rootPath;
+
+  private final List<String> depGlobs;
+
+  private final String depfile;
+
+  // hash of all files matching depGlobs, computed on first use
+  private String globDepsHash;
+
+
+  /**
+   * @param depfile  Path of a depfile, %s is replaced with an input path,
+   *                 null if there is none.
+   */
+  PreprocessCache(
+      OutputCache store, String charset, String rootPath,
+      List<String> depGlobs, String depfile) {
+
+    this.store = store;
+    this.charset = charset;
+    this.rootPath = rootPath;
+    this.depGlobs = depGlobs;
+    this.depfile = depfile;
+  }
+
+
+  /**
+   * Hashes the input file at path and glob dependencies. Taken before the
+   * command runs, so an input saved while it runs doesn't get the output
+   * of its old content.
+   *
+   * @return  The part of the key known before running the command.
+   */
+  public String getInputKey(String command, String path) throws IOException {
+    StringBuilder key = new StringBuilder();
+    key
+        .append(command).append('\0')
+        .append(charset).append('\0')
+        .append(hashFile(path)).append('\0')
+        .append(getGlobDepsHash()).append('\0');
+
+    return key.toString();
+  }
+
+  /**
+   * @param inputKey  Result of {@link #getInputKey} for the input at path.
+   * @return  Key of the command output for the input file at path, null if
+   *          it can't be known before running the command (depfile was not
+   *          written yet).
+   */
+  public String getKey(String inputKey, String path) throws IOException {
+    StringBuilder key = new StringBuilder(inputKey);
+
+    if (depfile != null) {
+      List<String> deps = readDepfile(depfile, path);
+      if (deps == null) {
+        return null;
+      }
+
+      for (String dep : deps) {
+        key
+            .append(dep).append(' ')
+            .append(new File(dep).isFile() ? hashFile(dep) : "-")
+            .append('\0');
+      }
+    }
+
+    return Utils.hash(Utils.getBytes(key.toString(), "UTF-8"));
+  }
+
+  public String get(String key) {
+    return store.get(key);
+  }
+
+  public void put(String key, String output) throws IOException {
+    store.put(key, output);
+  }
+
+  public void evict() {
+    store.evict();
+  }
+
+
+  private synchronized String getGlobDepsHash() throws IOException {
+    if (globDepsHash != null) {
+      return globDepsHash;
+    }
+
+    StringBuilder hashes = new StringBuilder();
+    for (String dep : findGlobDeps(rootPath, depGlobs)) {
+      hashes.append(dep).append(' ').append(hashFile(dep)).append('\0');
+    }
+
+    globDepsHash = Utils.hash(Utils.getBytes(hashes.toString(), "UTF-8"));
+    return globDepsHash;
+  }
+
+  /**
+   * @return  Sorted paths of files under root matching any of globs.
+   */
+  static List<String> findGlobDeps(String rootPath, List<String> globs)
+      throws IOException {
+
+    final Path root = Paths.get(rootPath);
+    final List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+    for (String glob : globs) {
+      matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+    }
+
+    final List<String> deps = new ArrayList<String>();
+    if (!matchers.isEmpty()) {
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(
+            Path file, BasicFileAttributes attributes) {
+
+          Path relativePath = root.relativize(file);
+          for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relativePath)) {
+              deps.add(file.toString());
+              break;
+            }
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    Collections.sort(deps);
+
+    return deps;
+  }
+
+  /**
+   * @param depfile  Depfile path, %s is replaced with the input path.
+   * @return  Files listed in the depfile of the input at path, null if
+   *          the preprocessor has not written it.
+   */
+  static List<String> readDepfile(String depfile, String path)
+      throws IOException {
+
+    File file = new File(String.format(depfile, path));
+    if (!file.isFile()) {
+      return null;
+    }
+
+    return parseDepfile(Utils.readFile(file.getPath()));
+  }
+
+  private static String hashFile(String path) throws IOException {
+    return Utils.hash(Utils.readBytes(path));
+  }
+
+
+  /**
+   * @return  Prerequisites of a make rule "target: dep1 dep2 \ ...".
+   */
+  static List<String> parseDepfile(String content) {
+    List<String> deps = new ArrayList<String>();
+
+    // a colon followed by whitespace, drive letters have no space after it
+    int start = -1;
+    for (int i = 0; i + 1 < content.length(); i++) {
+      if (content.charAt(i) == ':' &&
+          Character.isWhitespace(content.charAt(i + 1))) {
+        start = i + 1;
+        break;
+      }
+    }
+    if (start < 0) {
+      return deps;
+    }
+
+    StringBuilder dep = new StringBuilder();
+    for (int i = start; i < content.length(); i++) {
+      char c = content.charAt(i);
+
+      if (c == '\\' && i + 1 < content.length()) {
+        char next = content.charAt(i + 1);
+        if (next == ' ') {
+          // escaped space inside a path
+          dep.append(' ');
+          i++;
+          continue;
+        }
+        if (next == '\n' || next == '\r') {
+          // line continuation
+          i++;
+          if (next == '\r' && i + 1 < content.length() &&
+              content.charAt(i + 1) == '\n') {
+            i++;
+          }
+          c = ' ';
+        }
+      }
+
+      if (Character.isWhitespace(c)) {
+        if (dep.length() > 0) {
+          deps.add(dep.toString());
+          dep.setLength(0);
+        }
+        if (c == '\n' || c == '\r') {
+          // end of the rule
+          break;
+        }
+      } else {
+        dep.append(c);
+      }
+    }
+    if (dep.length() > 0) {
+      deps.add(dep.toString());
+    }
+
+    return deps;
+  }
+
+}
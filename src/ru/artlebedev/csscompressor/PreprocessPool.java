@@ -0,0 +1,241 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.PumpStreamHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Runs preprocess command for input files on a bounded number of threads,
+ * so that commands of many inputs run at the same time while modules are
+ * assembled in order.
+ */
+class PreprocessPool {
+
+  private final String command;
+
+  private final String charset;
+
+  private final long timeoutMillis;
+
+  // null if outputs are not cached
+  private final PreprocessCache cache;
+
+  // null if every file is preprocessed by a command of its own
+  private final PreprocessWorkers persistentWorkers;
+
+  private final ExecutorService executor;
+
+
+  PreprocessPool(
+      String command, String charset, int workers, long timeoutMillis,
+      PreprocessCache cache, PreprocessWorkers persistentWorkers) {
+
+    this.command = command;
+    this.charset = charset;
+    this.timeoutMillis = timeoutMillis;
+    this.cache = cache;
+    this.persistentWorkers = persistentWorkers;
+    this.executor = Executors.newFixedThreadPool(
+        workers,
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            // don't keep JVM alive for commands nobody waits for
+            Thread thread = new Thread(runnable, "css-preprocess");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+
+  /**
+   * Starts preprocessing of the file at path.
+   */
+  public Future<Output> submit(final String path) {
+    return executor.submit(new Callable<Output>() {
+      @Override
+      public Output call() {
+        return run(path);
+      }
+    });
+  }
+
+
+  /**
+   * @return  Output of a submitted command, blocks until it's done.
+   * @throws RuntimeException  If command failed.
+   */
+  public static Output get(Future<Output> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Preprocessing was interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+
+  private Output run(String path) {
+    // replace %s with a file path
+    String expandedCommand = String.format(command, path);
+
+    // null if output is not cached
+    String inputKey = null;
+    if (cache != null) {
+      try {
+        inputKey = cache.getInputKey(expandedCommand, path);
+      } catch (IOException e) {
+        // the input or its dependency can't be read, let the command tell
+      }
+    }
+
+    if (inputKey != null) {
+      String cached = getCached(inputKey, path);
+      if (cached != null) {
+        return new Output(expandedCommand, cached, "", true, false);
+      }
+    }
+
+    if (persistentWorkers != null) {
+      try {
+        StringBuilder stderr = new StringBuilder();
+        String stdout =
+            persistentWorkers.process(path, timeoutMillis, stderr);
+        if (inputKey != null) {
+          putCached(inputKey, path, stdout);
+        }
+        return new Output(
+            expandedCommand, stdout, stderr.toString(), false, true);
+      } catch (IOException e) {
+        // worker is broken, the command still works
+      }
+    }
+
+    CommandLine commandLine = CommandLine.parse(expandedCommand);
+
+    DefaultExecutor executor = new DefaultExecutor();
+    executor.setWatchdog(new ExecuteWatchdog(timeoutMillis));
+    final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    executor.setStreamHandler(new PumpStreamHandler(stdout, stderr));
+
+    try {
+      executor.execute(commandLine);
+
+      Output output = new Output(
+          expandedCommand,
+          stdout.toString(charset),
+          stderr.toString(charset),
+          false,
+          false);
+
+      if (inputKey != null) {
+        putCached(inputKey, path, output.stdout);
+      }
+
+      return output;
+
+    } catch (IOException e) {
+      throw new PreprocessException(
+          String.format("Preprocessing file %s failed.", path) +
+          "\n" + toString(stderr) +
+          "\n" + e.getMessage());
+    }
+  }
+
+  private String getCached(String inputKey, String path) {
+    try {
+      String key = cache.getKey(inputKey, path);
+      return key != null ? cache.get(key) : null;
+    } catch (IOException e) {
+      // the input or its dependency can't be read, let the command tell
+      return null;
+    }
+  }
+
+  private void putCached(String inputKey, String path, String stdout) {
+    try {
+      // depfile is up to date only now, after the command
+      String key = cache.getKey(inputKey, path);
+      if (key != null) {
+        cache.put(key, stdout);
+      }
+    } catch (IOException e) {
+      // output is not cached this time, the build goes on
+    }
+  }
+
+  private String toString(ByteArrayOutputStream stream) {
+    try {
+      return stream.toString(charset);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+
+  final static class Output {
+
+    final String command;
+    final String stdout;
+    final String stderr;
+    final boolean cached;
+    final boolean byWorker;
+
+    Output(
+        String command, String stdout, String stderr, boolean cached,
+        boolean byWorker) {
+
+      this.command = command;
+      this.stdout = stdout;
+      this.stderr = stderr;
+      this.cached = cached;
+      this.byWorker = byWorker;
+    }
+
+  }
+
+
+  /**
+   * Preprocess command has failed on a file.
+   */
+  final static class PreprocessException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    PreprocessException(String message) {
+      super(message);
+    }
+
+  }
+
+}
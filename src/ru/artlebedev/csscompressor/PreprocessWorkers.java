@@ -0,0 +1,269 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import org.apache.commons.exec.CommandLine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Long-lived preprocessor processes, each started once and then fed input
+ * paths one by one over stdin, with outputs read from stdout.
+ *
+ * Protocol, all text in config charset:
+ *   request:  "<length>\n<path>", length of path in bytes;
+ *   response: "ok <length>\n<css>" or "error <length>\n<message>".
+ * Stderr a worker writes while processing a file is returned with its
+ * output, as much of it as has been read by the time the response comes.
+ *
+ * Workers are started on demand, one per concurrent request, and stay idle
+ * between requests until shutdown.
+ */
+class PreprocessWorkers {
+
+  private final String command;
+
+  private final String charset;
+
+  private final ConcurrentLinkedQueue<Worker> idle =
+      new ConcurrentLinkedQueue<Worker>();
+
+  private final List<Worker> all = new ArrayList<Worker>();
+
+  private final ScheduledExecutorService watchdog =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "css-preprocess-watchdog");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  // stops workers if the compressor exits without shutdown
+  private final Thread shutdownHook = new Thread() {
+    @Override
+    public void run() {
+      shutdown();
+    }
+  };
+
+
+  PreprocessWorkers(String command, String charset) {
+    this.command = command;
+    this.charset = charset;
+
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+
+  /**
+   * @param stderr  Receives stderr of the worker.
+   * @return  Worker output for the input file at path.
+   * @throws IOException  If worker could not be started, died or broke
+   *                      the protocol. It's not used any more then.
+   * @throws PreprocessPool.PreprocessException  If worker reported an
+   *                                             error.
+   */
+  public String process(String path, long timeoutMillis, StringBuilder stderr)
+      throws IOException {
+
+    Worker worker = idle.poll();
+    if (worker == null) {
+      worker = start();
+    }
+
+    final Process process = worker.process;
+    ScheduledFuture<?> timeout = watchdog.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            process.destroy();
+          }
+        },
+        timeoutMillis, TimeUnit.MILLISECONDS);
+
+    String status;
+    String payload;
+    try {
+      byte[] request = Utils.getBytes(path, charset);
+      worker.stdin.write(Utils.getBytes(request.length + "\n", charset));
+      worker.stdin.write(request);
+      worker.stdin.flush();
+
+      String header = readLine(worker.stdout);
+      int split = header.indexOf(' ');
+      if (split < 0) {
+        throw new IOException("Malformed worker response: " + header);
+      }
+      status = header.substring(0, split);
+      int length = Integer.parseInt(header.substring(split + 1));
+      payload = new String(readFully(worker.stdout, length), charset);
+
+    } catch (IOException e) {
+      stop(worker);
+      throw e;
+    } catch (NumberFormatException e) {
+      stop(worker);
+      throw new IOException("Malformed worker response: " + e.getMessage());
+    } finally {
+      timeout.cancel(false);
+      stderr.append(new String(worker.drainStderr(), charset));
+    }
+
+    idle.add(worker);
+
+    if (status.equals("ok")) {
+      return payload;
+    }
+    throw new PreprocessPool.PreprocessException(
+        String.format("Preprocessing file %s failed.", path) +
+        "\n" + stderr +
+        "\n" + payload);
+  }
+
+
+  public void shutdown() {
+    List<Worker> workers;
+    synchronized (all) {
+      workers = new ArrayList<Worker>(all);
+      all.clear();
+    }
+
+    for (Worker worker : workers) {
+      worker.process.destroy();
+    }
+    idle.clear();
+    watchdog.shutdownNow();
+
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // called from the hook itself, JVM is shutting down
+    }
+  }
+
+
+  private Worker start() throws IOException {
+    CommandLine commandLine = CommandLine.parse(command);
+
+    List<String> arguments = new ArrayList<String>();
+    arguments.add(commandLine.getExecutable());
+    arguments.addAll(Arrays.asList(commandLine.getArguments()));
+
+    Process process = new ProcessBuilder(arguments).start();
+
+    Worker worker = new Worker(process);
+    synchronized (all) {
+      all.add(worker);
+    }
+    return worker;
+  }
+
+  private void stop(Worker worker) {
+    synchronized (all) {
+      all.remove(worker);
+    }
+    worker.process.destroy();
+  }
+
+  private static String readLine(InputStream stream) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    int b;
+    while ((b = stream.read()) != '\n') {
+      if (b < 0) {
+        throw new IOException("Worker exited");
+      }
+      line.write(b);
+    }
+
+    return line.toString("US-ASCII");
+  }
+
+  private static byte[] readFully(InputStream stream, int length)
+      throws IOException {
+
+    byte[] data = new byte[length];
+    int read = 0;
+    while (read < length) {
+      int n = stream.read(data, read, length - read);
+      if (n < 0) {
+        throw new IOException("Worker exited");
+      }
+      read += n;
+    }
+
+    return data;
+  }
+
+
+
+  private final static class Worker {
+
+    final Process process;
+    final OutputStream stdin;
+    final InputStream stdout;
+
+    // read all the time, a worker writing to a full pipe would hang
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+    Worker(Process process) {
+      this.process = process;
+      this.stdin = process.getOutputStream();
+      this.stdout = new BufferedInputStream(process.getInputStream());
+
+      final InputStream errorStream = process.getErrorStream();
+      Thread pump = new Thread("css-preprocess-stderr") {
+        @Override
+        public void run() {
+          byte[] buffer = new byte[4096];
+          try {
+            int n;
+            while ((n = errorStream.read(buffer)) != -1) {
+              synchronized (stderr) {
+                stderr.write(buffer, 0, n);
+              }
+            }
+          } catch (IOException e) {
+            // worker is stopped
+          }
+        }
+      };
+      pump.setDaemon(true);
+      pump.start();
+    }
+
+    /**
+     * @return  Stderr read since the last call.
+     */
+    byte[] drainStderr() {
+      synchronized (stderr) {
+        byte[] bytes = stderr.toByteArray();
+        stderr.reset();
+        return bytes;
+      }
+    }
+
+  }
+
+}
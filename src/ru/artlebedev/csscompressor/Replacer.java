@@ -0,0 +1,349 @@
+/**
+ * Author: Alexander Samilyak (aleksam241@gmail.com)
+ * Created: 2026.10.18
+ * Copyright 2012 Art. Lebedev Studio. All Rights Reserved.
+ */
+
+package ru.artlebedev.csscompressor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+
+/**
+ * --replace rules compiled once. The result is the same as of applying
+ * String.replaceAll for every rule in order.
+ *
+ * Rules whose search and replacement are plain strings are grouped and
+ * replaced by a single scan of a multi-pattern automaton (Aho-Corasick),
+ * as long as their matches can't affect each other: searches of a group
+ * never overlap and replacements never make up a search of a later rule.
+ * Other rules are regexps compiled once and applied one by one.
+ */
+class Replacer {
+
+  private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+
+  private final List<Step> steps = new ArrayList<Step>();
+
+
+  Replacer(List<Config.Replace> replaces) {
+    List<String> searches = new ArrayList<String>();
+    List<String> replacements = new ArrayList<String>();
+
+    if (replaces != null) {
+      for (Config.Replace replace : replaces) {
+        String search = unescapeSearch(replace.search);
+        String replacement = unescapeReplacement(replace.replacement);
+
+        if (search == null || replacement == null) {
+          addLiteralStep(searches, replacements);
+          steps.add(new RegexStep(replace.search, replace.replacement));
+          continue;
+        }
+
+        if (!canJoin(searches, replacements, search)) {
+          addLiteralStep(searches, replacements);
+        }
+        searches.add(search);
+        replacements.add(replacement);
+      }
+    }
+
+    addLiteralStep(searches, replacements);
+  }
+
+
+  public String apply(String css) {
+    for (Step step : steps) {
+      css = step.apply(css);
+    }
+    return css;
+  }
+
+
+  private void addLiteralStep(
+      List<String> searches, List<String> replacements) {
+
+    if (!searches.isEmpty()) {
+      steps.add(new LiteralStep(searches, replacements));
+      searches.clear();
+      replacements.clear();
+    }
+  }
+
+  /**
+   * @return  true if a literal rule may be applied in one scan together
+   *          with preceding ones.
+   */
+  private static boolean canJoin(
+      List<String> searches, List<String> replacements, String search) {
+
+    for (int i = 0; i < searches.size(); i++) {
+      String replacement = replacements.get(i);
+      if (overlap(searches.get(i), search) ||
+          // a removed match may join its neighbours into a new one
+          replacement.isEmpty() ||
+          overlap(replacement, search)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return  true if occurrences of a and b may share some chars.
+   */
+  private static boolean overlap(String a, String b) {
+    if (a.contains(b) || b.contains(a)) {
+      return true;
+    }
+
+    int length = Math.min(a.length(), b.length());
+    for (int k = 1; k < length; k++) {
+      if (a.endsWith(b.substring(0, k)) || b.endsWith(a.substring(0, k))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return  String matched by regex, null if it's not a plain string.
+   */
+  private static String unescapeSearch(String regex) {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+
+      if (c == '\\') {
+        // a backslash before any non-alphanumeric char quotes it
+        if (i + 1 == regex.length() ||
+            Character.isLetterOrDigit(regex.charAt(i + 1))) {
+          return null;
+        }
+        sb.append(regex.charAt(++i));
+
+      } else if (REGEX_META_CHARS.indexOf(c) >= 0) {
+        return null;
+
+      } else {
+        sb.append(c);
+      }
+    }
+
+    return sb.length() > 0 ? sb.toString() : null;
+  }
+
+  /**
+   * @return  Replacement string as is, null if it refers to groups.
+   */
+  private static String unescapeReplacement(String replacement) {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < replacement.length(); i++) {
+      char c = replacement.charAt(i);
+
+      if (c == '\\') {
+        if (i + 1 == replacement.length()) {
+          return null;
+        }
+        sb.append(replacement.charAt(++i));
+
+      } else if (c == '$') {
+        return null;
+
+      } else {
+        sb.append(c);
+      }
+    }
+
+    return sb.toString();
+  }
+
+
+
+  private static interface Step {
+
+    String apply(String css);
+
+  }
+
+
+  private final static class RegexStep implements Step {
+
+    private final Pattern pattern;
+    private final String replacement;
+
+    RegexStep(String regex, String replacement) {
+      this.pattern = Pattern.compile(regex);
+      this.replacement = replacement;
+    }
+
+    @Override
+    public String apply(String css) {
+      return pattern.matcher(css).replaceAll(replacement);
+    }
+
+  }
+
+
+  /**
+   * Replaces leftmost matches of several strings in one scan. Searches
+   * must not overlap each other, so the first match to end is
+   * the leftmost one.
+   */
+  private final static class LiteralStep implements Step {
+
+    private static final int ASCII = 128;
+
+    private final String[] replacements;
+
+    private final int[] lengths;
+
+    // symbol + 1 by char, 0 for chars not found in searches
+    private final int[] asciiSymbols = new int[ASCII];
+    private final Map<Character, Integer> otherSymbols =
+        new HashMap<Character, Integer>();
+
+    // state => symbol => state
+    private final int[][] transitions;
+
+    // state => index of the search ending at it, -1 if none does
+    private final int[] matches;
+
+    LiteralStep(List<String> searches, List<String> replacements) {
+      this.replacements = replacements.toArray(new String[0]);
+      this.lengths = new int[searches.size()];
+
+      int symbolCount = 0;
+      for (String search : searches) {
+        for (int i = 0; i < search.length(); i++) {
+          char c = search.charAt(i);
+          if (getSymbol(c) < 0) {
+            symbolCount++;
+            if (c < ASCII) {
+              asciiSymbols[c] = symbolCount;
+            } else {
+              otherSymbols.put(c, symbolCount);
+            }
+          }
+        }
+      }
+
+      // trie of searches
+      List<int[]> children = new ArrayList<int[]>();
+      List<Integer> ends = new ArrayList<Integer>();
+      children.add(newRow(symbolCount));
+      ends.add(-1);
+
+      for (int i = 0; i < searches.size(); i++) {
+        String search = searches.get(i);
+        lengths[i] = search.length();
+
+        int state = 0;
+        for (int j = 0; j < search.length(); j++) {
+          int symbol = getSymbol(search.charAt(j));
+          if (children.get(state)[symbol] < 0) {
+            children.get(state)[symbol] = children.size();
+            children.add(newRow(symbolCount));
+            ends.add(-1);
+          }
+          state = children.get(state)[symbol];
+        }
+        ends.set(state, i);
+      }
+
+      // failure links turn the trie into a complete automaton
+      int states = children.size();
+      transitions = new int[states][];
+      matches = new int[states];
+      int[] failures = new int[states];
+
+      LinkedList<Integer> queue = new LinkedList<Integer>();
+      transitions[0] = new int[symbolCount];
+      for (int symbol = 0; symbol < symbolCount; symbol++) {
+        int child = children.get(0)[symbol];
+        if (child >= 0) {
+          transitions[0][symbol] = child;
+          failures[child] = 0;
+          queue.add(child);
+        }
+      }
+
+      while (!queue.isEmpty()) {
+        int state = queue.removeFirst();
+        transitions[state] = new int[symbolCount];
+
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+          int child = children.get(state)[symbol];
+          if (child >= 0) {
+            failures[child] = transitions[failures[state]][symbol];
+            transitions[state][symbol] = child;
+            queue.add(child);
+          } else {
+            transitions[state][symbol] =
+                transitions[failures[state]][symbol];
+          }
+        }
+      }
+
+      for (int state = 0; state < states; state++) {
+        matches[state] = ends.get(state);
+      }
+    }
+
+    @Override
+    public String apply(String css) {
+      StringBuilder sb = null;
+      int copied = 0;
+      int state = 0;
+
+      for (int i = 0; i < css.length(); i++) {
+        int symbol = getSymbol(css.charAt(i));
+        state = symbol >= 0 ? transitions[state][symbol] : 0;
+
+        int match = matches[state];
+        if (match >= 0) {
+          if (sb == null) {
+            sb = new StringBuilder(css.length());
+          }
+          sb
+              .append(css, copied, i + 1 - lengths[match])
+              .append(replacements[match]);
+          copied = i + 1;
+          state = 0;
+        }
+      }
+
+      if (sb == null) {
+        return css;
+      }
+      return sb.append(css, copied, css.length()).toString();
+    }
+
+    private int getSymbol(char c) {
+      if (c < ASCII) {
+        return asciiSymbols[c] - 1;
+      }
+      Integer symbol = otherSymbols.get(c);
+      return symbol != null ? symbol - 1 : -1;
+    }
+
+    private static int[] newRow(int length) {
+      int[] row = new int[length];
+      for (int i = 0; i < length; i++) {
+        row[i] = -1;
+      }
+      return row;
+    }
+
+  }
+
+}
@@ -6,17 +6,27 @@
 
 package ru.artlebedev.csscompressor;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import com.google.gson.JsonElement;
 
 
 public class Utils {
 
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+
   private Utils() {}
 
 
@@ -27,20 +37,61 @@ public class Utils {
   public static String readFile(String path, String charset)
       throws IOException {
 
+    Charset cs = getCharset(charset);
+    byte[] bytes = readBytes(path);
+
+    // an ascii file decodes to the same chars in any ascii based charset,
+    // and latin-1 decoding is a plain copy
+    if (isAsciiBased(cs) && isAscii(bytes)) {
+      return new String(bytes, ISO_8859_1);
+    }
+
+    return new String(bytes, cs);
+  }
+
+
+  public static byte[] readBytes(String path) throws IOException {
     FileInputStream fileStream = new FileInputStream(path);
-    InputStreamReader inputStream = new InputStreamReader(fileStream, charset);
+    FileChannel channel = fileStream.getChannel();
 
     try {
-      StringBuilder sb = new StringBuilder();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("File is too big: " + path);
+      }
 
-      int c;
-      while ((c = inputStream.read()) != -1) {
-        sb.append((char) c);
+      // one read for the whole file into a buffer of its size
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          break;
+        }
       }
 
-      return sb.toString();
+      if (buffer.hasRemaining()) {
+        // file was truncated while reading
+        return Arrays.copyOf(buffer.array(), buffer.position());
+      }
+
+      int next = fileStream.read();
+      if (next < 0) {
+        return buffer.array();
+      }
+
+      // file has grown since its size was taken or size is not known
+      // (e.g. a pipe)
+      ByteArrayOutputStream rest = new ByteArrayOutputStream();
+      rest.write(buffer.array());
+      rest.write(next);
+      byte[] chunk = new byte[8192];
+      int n;
+      while ((n = fileStream.read(chunk)) > 0) {
+        rest.write(chunk, 0, n);
+      }
+      return rest.toByteArray();
+
     } finally {
-      inputStream.close();
+      channel.close();
       fileStream.close();
     }
   }
@@ -68,7 +119,70 @@ public class Utils {
   }
   
   
-  
+
+
+  private static Charset getCharset(String charset)
+      throws UnsupportedEncodingException {
+
+    try {
+      return Charset.forName(charset);
+    } catch (IllegalArgumentException e) {
+      throw new UnsupportedEncodingException(charset);
+    }
+  }
+
+  private static boolean isAsciiBased(Charset charset) {
+    String name = charset.name();
+    return name.equals("UTF-8") ||
+        name.equals("US-ASCII") ||
+        name.equals("ISO-8859-1") ||
+        name.equals("windows-1251") ||
+        name.equals("KOI8-R");
+  }
+
+  private static boolean isAscii(byte[] bytes) {
+    for (byte b : bytes) {
+      if (b < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  public static byte[] getBytes(String str, String charset) {
+    try {
+      return str.getBytes(charset);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("Unsupported charset " + charset);
+    }
+  }
+
+
+  /**
+   * @return  SHA-1 of all data parts as a hex string.
+   */
+  public static String hash(byte[]... data) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+
+    for (byte[] part : data) {
+      digest.update(part);
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (byte b : digest.digest()) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(b & 0xF, 16));
+    }
+
+    return sb.toString();
+  }
+
 
   /**
    * @return  If element is a JsonPrimitive that corresponds to a string, then